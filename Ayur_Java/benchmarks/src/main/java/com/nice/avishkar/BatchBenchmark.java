@@ -0,0 +1,69 @@
+package com.nice.avishkar;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// One operation is the whole request file for a criteria through the public API, with the
+// result cache off; divide the request count by the score for requests per second.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchBenchmark {
+
+    @Param({ "TestCase-4", "TestCase-5", "TestCase-6" })
+    public String dataset;
+
+    @Param({ "Time", "Cost", "Hops" })
+    public String criteria;
+
+    @Param({ "LABEL_SETTING", "EXACT" })
+    public String engine;
+
+    @Param({ "0" })
+    public int workers;
+
+    private CompiledTimetable timetable;
+    private Path requests;
+    private TravelOptimizerImpl optimizer;
+    private SolverExecutor executor;
+
+    @Setup
+    public void setUp() throws IOException {
+        timetable = CompiledTimetable.compile(BenchmarkData.schedules(dataset));
+        requests = BenchmarkData.writeRequests(BenchmarkData.requestsFor(timetable, BenchmarkData.requests(dataset), criteria));
+        optimizer = new TravelOptimizerImpl(false);
+        optimizer.setQueryCache(null);
+        optimizer.setDefaultEngine(criteria, BenchmarkData.engine(engine, criteria));
+        executor = SolverExecutor.create(SolverExecutor.Mode.WORK_STEALING, workers, SolverExecutor.DEFAULT_CHUNK_SIZE);
+        optimizer.setSolverExecutor(executor);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Benchmark
+    public void batch(Blackhole bh) throws IOException {
+        Map<String, OptimalTravelSchedule> result = optimizer.getOptimalTravelOptions(timetable, requests);
+        bh.consume(result);
+    }
+}
@@ -0,0 +1,90 @@
+package com.nice.avishkar;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Shared setup: locating the bundled test cases and turning request files into station ids.
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    static Path dataset(String name) {
+        return Paths.get(System.getProperty("bench.data", "../src/main/resources")).resolve(name);
+    }
+
+    static Path schedules(String dataset) {
+        return dataset(dataset).resolve("Schedules.csv");
+    }
+
+    static Path requests(String dataset) {
+        return dataset(dataset).resolve("CustomerRequests.csv");
+    }
+
+    // requests for one criteria that need a search: both stations known and distinct
+    static List<CustomerRequest> requestsFor(CompiledTimetable timetable, Path requests, String criteria) throws IOException {
+        List<CustomerRequest> out = new ArrayList<>();
+        try (CustomerRequest.Reader in = CustomerRequest.read(requests)) {
+            while (in.hasNext()) {
+                CustomerRequest r = in.next();
+                if (!criteria.equalsIgnoreCase(r.getCriteria())) continue;
+                int s = timetable.stationId(r.getSource());
+                int t = timetable.stationId(r.getDestination());
+                if (s < 0 || t < 0 || s == t) continue;
+                out.add(r);
+            }
+        }
+        if (out.isEmpty()) throw new IllegalStateException("no " + criteria + " requests in " + requests);
+        return out;
+    }
+
+    static Path writeRequests(List<CustomerRequest> requests) throws IOException {
+        Path file = Files.createTempFile("bench-requests", ".csv");
+        file.toFile().deleteOnExit();
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("RequestId,CustomerName,Source,Destination,Criteria");
+            out.newLine();
+            for (CustomerRequest r : requests) {
+                out.write(r.getRequestId() + "," + r.getCustomerName() + "," + r.getSource() + "," + r.getDestination() + "," + r.getCriteria());
+                out.newLine();
+            }
+        }
+        return file;
+    }
+
+    // LABEL_SETTING is the default heuristic search; EXACT is the exact engine for the criteria
+    static SearchEngine engine(String name, String criteria) {
+        if (!"EXACT".equalsIgnoreCase(name)) return SearchEngine.parse(name);
+        switch (criteria.toLowerCase()) {
+            case "time":
+                return SearchEngine.CONNECTION_SCAN;
+            case "hops":
+                return SearchEngine.ROUND_BASED;
+            default:
+                return SearchEngine.PARETO;
+        }
+    }
+
+    static Journey search(CompiledTimetable timetable, SearchEngine engine, int source, int target, String criteria) {
+        switch (engine) {
+            case CONNECTION_SCAN:
+                return ConnectionScanEngine.fastest(timetable, source, target);
+            case ROUND_BASED:
+                return RoundBasedEngine.fewestHops(timetable, source, target);
+            case PARETO:
+                return ParetoEngine.best(timetable, source, target, criteria, ParetoEngine.UNBOUNDED);
+            case BIDIRECTIONAL:
+                return BidirectionalEngine.search(timetable, source, target, criteria);
+            case ANYTIME:
+                return AnytimeEngine.search(timetable, source, target, criteria, SearchBudget.UNLIMITED);
+            default:
+                return LabelSettingEngine.search(timetable, source, target, criteria);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.nice.avishkar;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Latency of one search, cycling through the dataset's requests for the given criteria.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    @Param({ "TestCase-4", "TestCase-5", "TestCase-6" })
+    public String dataset;
+
+    @Param({ "Time", "Cost", "Hops" })
+    public String criteria;
+
+    @Param({ "LABEL_SETTING", "EXACT" })
+    public String engine;
+
+    private CompiledTimetable timetable;
+    private SearchEngine searchEngine;
+    private int[] sources;
+    private int[] targets;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        timetable = CompiledTimetable.compile(BenchmarkData.schedules(dataset));
+        searchEngine = BenchmarkData.engine(engine, criteria);
+        List<CustomerRequest> requests = BenchmarkData.requestsFor(timetable, BenchmarkData.requests(dataset), criteria);
+        sources = new int[requests.size()];
+        targets = new int[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            sources[i] = timetable.stationId(requests.get(i).getSource());
+            targets[i] = timetable.stationId(requests.get(i).getDestination());
+        }
+    }
+
+    @Benchmark
+    public Journey singleQuery() {
+        int i = next;
+        next = i + 1 == sources.length ? 0 : i + 1;
+        return BenchmarkData.search(timetable, searchEngine, sources[i], targets[i], criteria);
+    }
+}
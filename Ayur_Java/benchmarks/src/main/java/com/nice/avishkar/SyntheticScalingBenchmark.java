@@ -0,0 +1,90 @@
+package com.nice.avishkar;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Generated timetables growing by orders of magnitude, to find where load and search
+// stop scaling. Queries pick random station pairs from a fixed seed.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SyntheticScalingBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int stations;
+
+    @Param({ "8" })
+    public int legsPerStation;
+
+    private Path schedules;
+    private CompiledTimetable timetable;
+    private int[] sources;
+    private int[] targets;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        Path dir = Files.createTempDirectory("synthetic-" + stations);
+        ResourceInfo info = TimetableGenerator.generate(dir, stations, stations * legsPerStation, 0, 42L);
+        schedules = info.getTransportSchedulePath();
+        schedules.toFile().deleteOnExit();
+        info.getCustomerRequestPath().toFile().deleteOnExit();
+        dir.toFile().deleteOnExit();
+        timetable = CompiledTimetable.compile(schedules);
+
+        Random random = new Random(7);
+        sources = new int[1024];
+        targets = new int[1024];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = random.nextInt(timetable.stationCount());
+            targets[i] = random.nextInt(timetable.stationCount());
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public CompiledTimetable compile() throws IOException {
+        return CompiledTimetable.compile(schedules);
+    }
+
+    @Benchmark
+    public Journey fastest() {
+        int i = advance();
+        return ConnectionScanEngine.fastest(timetable, sources[i], targets[i]);
+    }
+
+    @Benchmark
+    public Journey fewestHops() {
+        int i = advance();
+        return RoundBasedEngine.fewestHops(timetable, sources[i], targets[i]);
+    }
+
+    @Benchmark
+    public Journey labelSetting() {
+        int i = advance();
+        return LabelSettingEngine.search(timetable, sources[i], targets[i], "Time");
+    }
+
+    private int advance() {
+        int i = next;
+        next = (i + 1) & (sources.length - 1);
+        return i;
+    }
+}
@@ -0,0 +1,96 @@
+package com.nice.avishkar;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+// Writes a synthetic Schedules.csv / CustomerRequests.csv pair in the bundled format.
+// Stations are chained into one ring so every request has a route; the remaining legs
+// go mostly to nearby stations on the ring, with some long-distance ones, which keeps
+// hop counts growing with network size the way a real timetable does.
+public final class TimetableGenerator {
+
+    private static final String[] MODES = { "Bus", "Train", "Flight" };
+    private static final String[] CRITERIA = { "Time", "Cost", "Hops" };
+
+    private TimetableGenerator() {
+    }
+
+    // usage: TimetableGenerator <outDir> <stations> <legs> <requests> [seed]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("usage: TimetableGenerator <outDir> <stations> <legs> <requests> [seed]");
+            System.exit(1);
+        }
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42L;
+        generate(Paths.get(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), seed);
+    }
+
+    public static ResourceInfo generate(Path dir, int stations, int legs, int requests, long seed) throws IOException {
+        if (stations < 2) throw new IllegalArgumentException("need at least 2 stations");
+        Files.createDirectories(dir);
+        Random random = new Random(seed);
+        String[] codes = stationCodes(stations, random);
+
+        Path schedules = dir.resolve("Schedules.csv");
+        try (BufferedWriter out = Files.newBufferedWriter(schedules, StandardCharsets.UTF_8)) {
+            out.write("Source,Destination,Mode,DepartureTime,ArrivalTime,Cost");
+            out.newLine();
+            for (int i = 0; i < Math.max(legs, stations); i++) {
+                int from = i < stations ? i : random.nextInt(stations);
+                int to;
+                if (i < stations) {
+                    to = (i + 1) % stations;
+                } else if (random.nextInt(10) == 0) {
+                    to = random.nextInt(stations);
+                } else {
+                    to = Math.floorMod(from + random.nextInt(41) - 20, stations);
+                }
+                if (to == from) to = (from + 1) % stations;
+
+                int departure = random.nextInt(288) * 5;
+                int duration = 20 + random.nextInt(57) * 5;
+                int arrival = (departure + duration) % 1440;
+                out.write(codes[from] + "," + codes[to] + "," + MODES[random.nextInt(MODES.length)] + ","
+                        + clock(departure) + "," + clock(arrival) + "," + (50 + random.nextInt(96) * 10));
+                out.newLine();
+            }
+        }
+
+        Path customerRequests = dir.resolve("CustomerRequests.csv");
+        try (BufferedWriter out = Files.newBufferedWriter(customerRequests, StandardCharsets.UTF_8)) {
+            out.write("RequestId,CustomerName,Source,Destination,Criteria");
+            out.newLine();
+            for (int i = 1; i <= requests; i++) {
+                out.write(i + ",Customer " + i + "," + codes[random.nextInt(stations)] + "," + codes[random.nextInt(stations)]
+                        + "," + CRITERIA[random.nextInt(CRITERIA.length)]);
+                out.newLine();
+            }
+        }
+        return new ResourceInfo(schedules, customerRequests);
+    }
+
+    private static String[] stationCodes(int stations, Random random) {
+        String[] codes = new String[stations];
+        Set<String> seen = new HashSet<>();
+        int width = Math.max(6, Long.toHexString(4L * stations).length());
+        for (int i = 0; i < stations; i++) {
+            String code;
+            do {
+                code = String.format("%0" + width + "X", random.nextLong() & ((1L << (4 * width)) - 1));
+            } while (!seen.add(code));
+            codes[i] = code;
+        }
+        return codes;
+    }
+
+    private static String clock(int minute) {
+        return String.format("%02d:%02d", minute / 60, minute % 60);
+    }
+}
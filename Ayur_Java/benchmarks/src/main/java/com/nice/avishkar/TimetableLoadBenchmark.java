@@ -0,0 +1,69 @@
+package com.nice.avishkar;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// CSV parsing alone, parsing plus the full index build (the difference is build cost), and
+// loading the same index from a binary snapshot instead.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimetableLoadBenchmark {
+
+    @Param({ "TestCase-4", "TestCase-5", "TestCase-6" })
+    public String dataset;
+
+    private Path schedules;
+    private Path snapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        schedules = BenchmarkData.schedules(dataset);
+        snapshot = Files.createTempFile("timetable", ".bin");
+        snapshot.toFile().deleteOnExit();
+        CompiledTimetable.compile(schedules).save(snapshot);
+    }
+
+    @Benchmark
+    public void parseCsv(Blackhole bh) throws IOException {
+        CsvScanner.Interner stations = new CsvScanner.Interner();
+        try (CsvScanner in = CsvScanner.open(schedules)) {
+            in.skipLine();
+            while (in.next()) {
+                if (in.fieldCount() < 6) continue;
+                bh.consume(stations.intern(in, 0));
+                bh.consume(stations.intern(in, 1));
+                bh.consume(in.parseMinutes(3));
+                bh.consume(in.parseMinutes(4));
+                bh.consume(in.parseLong(5, 0L));
+            }
+        }
+    }
+
+    @Benchmark
+    public CompiledTimetable compile() throws IOException {
+        return CompiledTimetable.compile(schedules);
+    }
+
+    @Benchmark
+    public CompiledTimetable loadSnapshot() throws IOException {
+        return CompiledTimetable.load(snapshot);
+    }
+}
@@ -0,0 +1,155 @@
+package com.nice.avishkar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// Other itineraries for a request besides its answer, best first under the criteria, as
+// k-shortest paths that reuse labels the first search already has instead of searching again
+// with legs taken out. Time reads them off the backward connection scan's labels (see
+// ConnectionScanEngine.alternativesTo). Fares and leg counts do not depend on departure
+// times, so for Cost and Hops the cached LowerBounds.forTarget distances are a shortest path
+// tree to the target, and every other leg sequence is a prefix, one sidetrack leg and the
+// tree beyond it, worth prefix + leg + distance exactly; taking those best first lists leg
+// sequences in order. Journeys revisiting a station are left out, and Cost has no
+// alternatives when fares can be negative. Both searches give up after pollLimit candidates,
+// so fewer than asked may come back even when more exist.
+final class Alternatives {
+
+    // candidates looked at per alternative asked for, before giving up on the rest
+    private static final int MAX_POLLS_PER_ALTERNATIVE = 64;
+
+    private Alternatives() {
+    }
+
+    static List<Journey> find(CompiledTimetable tt, int source, int target, String criteria, Journey answer, int count) {
+        List<Journey> out = new ArrayList<>(count);
+        if (source < 0 || target < 0 || source == target || count <= 0) return out;
+        String c = criteria == null ? "time" : criteria.toLowerCase();
+        if ("cost".equals(c) || "hops".equals(c)) return sidetracks(tt, source, target, "cost".equals(c), answer, count);
+
+        Journey[] fastest = new Journey[1];
+        List<Journey> ranked = new ArrayList<>();
+        ranked.addAll(ConnectionScanEngine.alternativesTo(tt, new int[] { source }, target, new int[] { count }, fastest).get(0));
+        if (fastest[0] != null) ranked.add(0, fastest[0]);
+        // the answer may come from another engine, so it need not be the scan's fastest
+        for (Journey j : ranked) {
+            if (out.size() < count && !Arrays.equals(j.legs, answer.legs)) out.add(j);
+        }
+        return out;
+    }
+
+    private static List<Journey> sidetracks(CompiledTimetable tt, int source, int target, boolean fares, Journey answer, int count) {
+        List<Journey> out = new ArrayList<>(count);
+        LowerBounds back = LowerBounds.forTarget(tt, target);
+        if (back.hops[source] < 0 || (fares && !back.exactFares)) return out;
+
+        Set<String> seen = new HashSet<>();
+        seen.add(Arrays.toString(answer.legs));
+        // { value, prefix index, sidetrack leg or -1 for the tree path }
+        PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        List<int[]> prefixes = new ArrayList<>();
+        prefixes.add(new int[0]);
+        queue.add(new long[] { distance(back, source, fares), 0, -1 });
+        long pushes = 1;
+        long expansions = 0;
+        int polls = pollLimit(count);
+        while (!queue.isEmpty() && out.size() < count && polls-- > 0) {
+            long[] top = queue.poll();
+            int[] prefix = prefixes.get((int) top[1]);
+            int sidetrack = (int) top[2];
+            int[] legs = follow(tt, back, source, target, fares, prefix, sidetrack);
+            if (legs == null) continue;
+            if (seen.add(Arrays.toString(legs)) && simple(tt, source, legs)) out.add(journey(tt, legs));
+
+            // branch only after the sidetrack, so each leg sequence comes from one candidate
+            expansions++;
+            long spent = 0;
+            int from = sidetrack < 0 ? 0 : prefix.length + 1;
+            for (int k = 0; k < legs.length; k++) {
+                if (k >= from) {
+                    int u = tt.legSource[legs[k]];
+                    int index = -1;
+                    for (int p = tt.outOffset[u]; p < tt.outOffset[u + 1]; p++) {
+                        int leg = tt.outLegs[p];
+                        int v = tt.legDestination[leg];
+                        if (leg == legs[k] || back.hops[v] < 0 || distance(back, v, fares) == Long.MAX_VALUE) continue;
+                        if (index < 0) {
+                            index = prefixes.size();
+                            prefixes.add(Arrays.copyOf(legs, k));
+                        }
+                        queue.add(new long[] { spent + weight(tt, leg, fares) + distance(back, v, fares), index, leg });
+                        pushes++;
+                    }
+                }
+                spent += weight(tt, legs[k], fares);
+            }
+        }
+        SearchCounters.current().add(pushes, expansions, 0, out.size() < count && !queue.isEmpty() ? 1 : 0);
+        return out;
+    }
+
+    // prefix, then the sidetrack, then tight legs of the tree; null when zero fares loop
+    private static int[] follow(CompiledTimetable tt, LowerBounds back, int source, int target, boolean fares, int[] prefix, int sidetrack) {
+        int[] legs = Arrays.copyOf(prefix, prefix.length + 1 + tt.stationCount());
+        int n = prefix.length;
+        int u = n == 0 ? source : tt.legDestination[prefix[n - 1]];
+        if (sidetrack >= 0) {
+            legs[n++] = sidetrack;
+            u = tt.legDestination[sidetrack];
+        }
+        while (u != target) {
+            if (n == legs.length) return null;
+            int taken = -1;
+            for (int p = tt.outOffset[u]; p < tt.outOffset[u + 1] && taken < 0; p++) {
+                int leg = tt.outLegs[p];
+                int v = tt.legDestination[leg];
+                long rest = back.hops[v] < 0 ? Long.MAX_VALUE : distance(back, v, fares);
+                if (rest != Long.MAX_VALUE && weight(tt, leg, fares) + rest == distance(back, u, fares)) taken = leg;
+            }
+            if (taken < 0) return null;
+            legs[n++] = taken;
+            u = tt.legDestination[taken];
+        }
+        return Arrays.copyOf(legs, n);
+    }
+
+    private static long distance(LowerBounds back, int station, boolean fares) {
+        return fares ? back.cost[station] : back.hops[station];
+    }
+
+    private static long weight(CompiledTimetable tt, int leg, boolean fares) {
+        return fares ? tt.legCost[leg] : 1;
+    }
+
+    // boarding each leg at its next departure after the one before, from the first leg's departure
+    private static Journey journey(CompiledTimetable tt, int[] legs) {
+        long departure = tt.legDeparture[legs[0]];
+        long arrival = departure;
+        long cost = 0;
+        for (int k = 0; k < legs.length; k++) {
+            int leg = legs[k];
+            long dep = k == 0 ? departure : CompiledTimetable.nextDeparture(tt.legDeparture[leg], arrival);
+            arrival = dep + tt.legArrival[leg] - tt.legDeparture[leg];
+            cost += tt.legCost[leg];
+        }
+        return new Journey(legs, departure, arrival, cost);
+    }
+
+    // how many candidates a search for count alternatives may take off its queue
+    static int pollLimit(int count) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) count * MAX_POLLS_PER_ALTERNATIVE);
+    }
+
+    static boolean simple(CompiledTimetable tt, int source, int[] legs) {
+        Set<Integer> visited = new HashSet<>();
+        visited.add(source);
+        for (int leg : legs) {
+            if (!visited.add(tt.legDestination[leg])) return false;
+        }
+        return true;
+    }
+}
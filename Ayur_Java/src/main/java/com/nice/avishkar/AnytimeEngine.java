@@ -0,0 +1,243 @@
+package com.nice.avishkar;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+// Anytime search under a SearchBudget, with no hop or expansion cap of its own. Labels are
+// (first departure, arrival, cost, legs) at a station, taken best first on g + 1.5 h with
+// the LowerBounds.forTarget of the criteria as h: the inflated heuristic dives for a first
+// journey early, and the search carries on improving it. Any label whose admissible g + h
+// cannot beat the best journey so far is dropped, so an empty queue proves that journey
+// optimal. When the budget runs out first, the smallest g + h left in the queue bounds the
+// optimum from below, and the answer reports the difference as its gap. Only the criteria's
+// own value is proven; ties are broken as the labels happen to come. Cost with negative fares
+// has no bound to search on and goes to the exact Pareto search whatever the budget.
+final class AnytimeEngine {
+
+    private static final int TIME = 0;
+    private static final int COST = 1;
+    private static final int HOPS = 2;
+
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+
+    private AnytimeEngine() {
+    }
+
+    // null when there is provably no route; a journey without legs when the budget ran out
+    // before any was found
+    static Journey search(CompiledTimetable tt, int source, int target, String criteria, SearchBudget budget) {
+        if (source < 0 || target < 0 || source == target) return null;
+        long started = System.nanoTime();
+        LowerBounds back = LowerBounds.forTarget(tt, target);
+        if (back.hops[source] < 0) return null;
+        String c = criteria == null ? "time" : criteria.toLowerCase();
+        int kind = "cost".equals(c) ? COST : "hops".equals(c) ? HOPS : TIME;
+        if (kind == COST && !back.exactFares) return ParetoEngine.best(tt, source, target, criteria, ParetoEngine.UNBOUNDED);
+
+        Workspace ws = WORKSPACE.get();
+        ws.reset(tt.stationCount(), kind);
+        // { g + 1.5 h, g + h, label }
+        PriorityQueue<long[]> queue = new PriorityQueue<>(AnytimeEngine::compare);
+        int best = -1;
+        long pushes = 0;
+        long expansions = 0;
+        long prunes = 0;
+        for (int p = tt.outOffset[source]; p < tt.outOffset[source + 1]; p++) {
+            int leg = tt.outLegs[p];
+            int label = ws.newLabel(tt.legDestination[leg], tt.legDeparture[leg], tt.legArrival[leg], tt.legCost[leg], 1, -1, leg);
+            best = offer(tt, ws, back, target, queue, label, best);
+        }
+
+        boolean spent = false;
+        while (!queue.isEmpty()) {
+            if (budget.spent(expansions, started)) {
+                spent = true;
+                break;
+            }
+            long[] top = queue.poll();
+            int label = (int) top[2];
+            if (ws.dead[label] || (best >= 0 && top[1] >= ws.primary(best))) {
+                prunes++;
+                continue;
+            }
+            expansions++;
+            int u = ws.station[label];
+            // fewest-legs journeys never repeat a station; this also ends zero-fare cycles
+            if (ws.hops[label] + 1 >= tt.stationCount()) continue;
+            for (int p = tt.outOffset[u]; p < tt.outOffset[u + 1]; p++) {
+                int leg = tt.outLegs[p];
+                int v = tt.legDestination[leg];
+                if (back.hops[v] < 0) continue;
+                long arr = CompiledTimetable.nextDeparture(tt.legDeparture[leg], ws.arrival[label]) + tt.legArrival[leg] - tt.legDeparture[leg];
+                int next = ws.newLabel(v, ws.departure[label], arr, ws.cost[label] + tt.legCost[leg], ws.hops[label] + 1, label, leg);
+                int before = queue.size();
+                best = offer(tt, ws, back, target, queue, next, best);
+                if (queue.size() > before) pushes++;
+                else prunes++;
+            }
+        }
+
+        long lower = Long.MAX_VALUE;
+        if (spent) {
+            for (long[] open : queue) {
+                if (!ws.dead[(int) open[2]]) lower = Math.min(lower, open[1]);
+            }
+        }
+        SearchCounters.current().add(pushes, expansions, prunes, spent ? 1 : 0);
+        if (best < 0) return spent ? new Journey(new int[0], 0, 0, 0).withGap(Journey.UNKNOWN_GAP) : null;
+        long value = ws.primary(best);
+        return ws.journey(best).withGap(lower >= value ? 0 : value - lower);
+    }
+
+    // a label reaching the target competes with the best journey so far, any other one
+    // is queued unless it cannot beat that journey or an earlier label at its station
+    // dominates it; returns the best journey so far
+    private static int offer(CompiledTimetable tt, Workspace ws, LowerBounds back, int target, PriorityQueue<long[]> queue, int label, int best) {
+        int v = ws.station[label];
+        if (v == target) {
+            if (best < 0 || ws.better(label, best)) return label;
+            return best;
+        }
+        if (back.hops[v] < 0) return best;
+        long h;
+        switch (ws.kind) {
+            case COST:
+                h = back.cost[v];
+                break;
+            case HOPS:
+                h = back.hops[v];
+                break;
+            default:
+                h = back.duration[v];
+        }
+        long f = ws.primary(label) + h;
+        if (best >= 0 && f >= ws.primary(best)) return best;
+        if (!ws.settle(label)) return best;
+        queue.add(new long[] { f + h / 2, f, label });
+        return best;
+    }
+
+    private static int compare(long[] a, long[] b) {
+        for (int k = 0; k < 3; k++) {
+            int c = Long.compare(a[k], b[k]);
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+
+    private static final class Workspace {
+        int kind;
+
+        // label arena
+        int labels;
+        int[] station = new int[256];
+        long[] departure = new long[256];
+        long[] arrival = new long[256];
+        long[] cost = new long[256];
+        int[] hops = new int[256];
+        int[] parent = new int[256];
+        int[] leg = new int[256];
+        boolean[] dead = new boolean[256];
+
+        // per-station fronts of live label ids
+        int[][] front = new int[0][];
+        int[] frontSize = new int[0];
+
+        void reset(int stations, int kind) {
+            this.kind = kind;
+            labels = 0;
+            if (front.length < stations) {
+                front = new int[stations][];
+                frontSize = new int[stations];
+            }
+            Arrays.fill(frontSize, 0, stations, 0);
+        }
+
+        int newLabel(int at, long d0, long arr, long paid, int legs, int from, int via) {
+            if (labels == station.length) {
+                int n = labels * 2;
+                station = Arrays.copyOf(station, n);
+                departure = Arrays.copyOf(departure, n);
+                arrival = Arrays.copyOf(arrival, n);
+                cost = Arrays.copyOf(cost, n);
+                hops = Arrays.copyOf(hops, n);
+                parent = Arrays.copyOf(parent, n);
+                leg = Arrays.copyOf(leg, n);
+                dead = Arrays.copyOf(dead, n);
+            }
+            int id = labels++;
+            station[id] = at;
+            departure[id] = d0;
+            arrival[id] = arr;
+            cost[id] = paid;
+            hops[id] = legs;
+            parent[id] = from;
+            leg[id] = via;
+            dead[id] = false;
+            return id;
+        }
+
+        long primary(int label) {
+            switch (kind) {
+                case COST:
+                    return cost[label];
+                case HOPS:
+                    return hops[label];
+                default:
+                    return arrival[label] - departure[label];
+            }
+        }
+
+        // the journeys' order: the criteria first, then duration, cost and legs
+        boolean better(int a, int b) {
+            if (primary(a) != primary(b)) return primary(a) < primary(b);
+            long da = arrival[a] - departure[a];
+            long db = arrival[b] - departure[b];
+            if (da != db) return da < db;
+            if (cost[a] != cost[b]) return cost[a] < cost[b];
+            return hops[a] < hops[b];
+        }
+
+        // whatever b can still do, a can do no worse on the criteria: for Time it left no
+        // earlier and arrived no later; fares and leg counts do not depend on the clock
+        private boolean dominates(int a, int b) {
+            boolean ties = cost[a] <= cost[b] && hops[a] <= hops[b];
+            switch (kind) {
+                case COST:
+                    return cost[a] < cost[b] || (cost[a] == cost[b] && hops[a] <= hops[b]);
+                case HOPS:
+                    return hops[a] <= hops[b];
+                default:
+                    if (departure[a] < departure[b] || arrival[a] > arrival[b]) return false;
+                    return departure[a] > departure[b] || arrival[a] < arrival[b] || ties;
+            }
+        }
+
+        // false when the station already holds a label dominating this one; otherwise it
+        // joins the front and the labels it dominates die
+        boolean settle(int label) {
+            int s = station[label];
+            int[] f = front[s];
+            int n = frontSize[s];
+            for (int k = 0; k < n; k++) {
+                if (dominates(f[k], label)) return false;
+            }
+            int kept = 0;
+            for (int k = 0; k < n; k++) {
+                if (dominates(label, f[k])) dead[f[k]] = true;
+                else f[kept++] = f[k];
+            }
+            if (f == null) f = front[s] = new int[4];
+            else if (kept == f.length) f = front[s] = Arrays.copyOf(f, kept * 2);
+            f[kept++] = label;
+            frontSize[s] = kept;
+            return true;
+        }
+
+        Journey journey(int label) {
+            int[] legs = new int[hops[label]];
+            for (int l = label, k = legs.length; l >= 0; l = parent[l]) legs[--k] = leg[l];
+            return new Journey(legs, departure[label], arrival[label], cost[label]);
+        }
+    }
+}
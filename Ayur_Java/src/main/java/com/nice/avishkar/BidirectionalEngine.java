@@ -0,0 +1,177 @@
+package com.nice.avishkar;
+
+import java.util.Arrays;
+
+// Bidirectional search for long journeys, with no hop cap. The backward side is
+// LowerBounds.forTarget, the least riding time, fare and legs from every station to the
+// target; the forward side is the same from the source. Where they meet, fwd[u] + leg +
+// back[v] bounds any journey through leg u -> v from below. Real journeys bound the optimum
+// from above: a walk along tight legs of the backward bounds, and for Time goal-directed
+// earliest-arrival probes from the source's departures. Only legs whose lower bound fits
+// under the best of those can lie on an optimal journey, so the exact engine for the
+// criteria runs on that corridor alone (the backward connection scan, i.e. the
+// latest-departure profile, for Time) and gives the same answer as the whole network.
+final class BidirectionalEngine {
+
+    private static final int TIME = 0;
+    private static final int COST = 1;
+    private static final int HOPS = 2;
+
+    private BidirectionalEngine() {
+    }
+
+    static Journey search(CompiledTimetable tt, int source, int target, String criteria) {
+        if (source < 0 || target < 0 || source == target) return null;
+        LowerBounds back = LowerBounds.forTarget(tt, target);
+        if (back.hops[source] < 0) return null;
+        String c = criteria == null ? "time" : criteria.toLowerCase();
+        int kind = "cost".equals(c) ? COST : "hops".equals(c) ? HOPS : TIME;
+        // negative fares leave no fare bound to cut on
+        if (kind == COST && !back.exactFares) return ParetoEngine.best(tt, source, target, criteria, ParetoEngine.UNBOUNDED);
+        LowerBounds fwd = LowerBounds.fromSource(tt, source);
+
+        long limit = upperBound(tt, source, target, back, kind);
+        if (limit < 0) return exact(tt, source, target, kind, back, tt.connections);
+        if (kind == TIME) limit = forwardProbes(tt, source, target, back, limit);
+
+        // the corridor, still in departure order
+        int[] corridor = new int[64];
+        int n = 0;
+        for (int leg : tt.connections) {
+            int u = tt.legSource[leg];
+            int v = tt.legDestination[leg];
+            if (fwd.hops[u] < 0 || back.hops[v] < 0 || legBound(tt, fwd, back, leg, kind) > limit) continue;
+            if (n == corridor.length) corridor = Arrays.copyOf(corridor, n * 2);
+            corridor[n++] = leg;
+        }
+        SearchCounters.current().add(n, 0, tt.connections.length - n, 0);
+        return exact(tt, source, target, kind, back, Arrays.copyOf(corridor, n));
+    }
+
+    private static long legBound(CompiledTimetable tt, LowerBounds fwd, LowerBounds back, int leg, int kind) {
+        int u = tt.legSource[leg];
+        int v = tt.legDestination[leg];
+        switch (kind) {
+            case COST:
+                return fwd.cost[u] + tt.legCost[leg] + back.cost[v];
+            case HOPS:
+                return fwd.hops[u] + 1 + back.hops[v];
+            default:
+                return fwd.duration[u] + tt.legArrival[leg] - tt.legDeparture[leg] + back.duration[v];
+        }
+    }
+
+    // the exact engine for the criteria over the corridor legs only: the connection scan
+    // takes them as they are, the others search a timetable made of just those legs
+    private static Journey exact(CompiledTimetable tt, int source, int target, int kind, LowerBounds back, int[] corridor) {
+        if (kind == TIME) return ConnectionScanEngine.fastestWithin(tt, source, target, back.hops, corridor);
+        int[] legs = corridor.clone();
+        Arrays.sort(legs);
+        CompiledTimetable sub = CompiledTimetable.subset(tt, legs);
+        int s = sub.stationId(tt.stationName(source));
+        int t = sub.stationId(tt.stationName(target));
+        Journey j = kind == HOPS ? RoundBasedEngine.fewestHops(sub, s, t) : ParetoEngine.best(sub, s, t, "Cost", ParetoEngine.UNBOUNDED);
+        if (j == null) return null;
+        int[] mapped = new int[j.legs.length];
+        for (int k = 0; k < mapped.length; k++) mapped[k] = legs[j.legs[k]];
+        return new Journey(mapped, j.departure, j.arrival, j.cost);
+    }
+
+    // the criteria's value of a journey that follows tight legs of the backward bounds,
+    // boarding each at its next departure; -1 when no such walk is found
+    private static long upperBound(CompiledTimetable tt, int source, int target, LowerBounds back, int kind) {
+        long departure = -1;
+        long arrival = 0;
+        long cost = 0;
+        int hops = 0;
+        int u = source;
+        for (int step = 0; u != target; step++) {
+            if (step == tt.stationCount()) return -1;
+            int taken = -1;
+            for (int p = tt.outOffset[u]; p < tt.outOffset[u + 1] && taken < 0; p++) {
+                int leg = tt.outLegs[p];
+                int v = tt.legDestination[leg];
+                if (back.hops[v] < 0) continue;
+                switch (kind) {
+                    case COST:
+                        if (back.cost[v] != Long.MAX_VALUE && tt.legCost[leg] + back.cost[v] == back.cost[u]) taken = leg;
+                        break;
+                    case HOPS:
+                        if (back.hops[v] == back.hops[u] - 1) taken = leg;
+                        break;
+                    default:
+                        long ride = tt.legArrival[leg] - tt.legDeparture[leg];
+                        if (back.duration[v] != Long.MAX_VALUE && ride + back.duration[v] == back.duration[u]) taken = leg;
+                }
+            }
+            if (taken < 0) return -1;
+            long dep = departure < 0 ? tt.legDeparture[taken] : CompiledTimetable.nextDeparture(tt.legDeparture[taken], arrival);
+            if (departure < 0) departure = dep;
+            arrival = dep + tt.legArrival[taken] - tt.legDeparture[taken];
+            cost += tt.legCost[taken];
+            hops++;
+            u = tt.legDestination[taken];
+        }
+        switch (kind) {
+            case COST:
+                return cost;
+            case HOPS:
+                return hops;
+            default:
+                return arrival - departure;
+        }
+    }
+
+    // earliest arrivals from each departure at the source, goal directed by the backward
+    // bounds and cut at the best duration so far: every probe is a real journey, so the
+    // best of them bounds the optimum from above much closer than a single walk does
+    private static long forwardProbes(CompiledTimetable tt, int source, int target, LowerBounds back, long limit) {
+        int stations = tt.stationCount();
+        long[] arrival = new long[stations];
+        long[] heap = new long[16];
+        long expansions = 0;
+        int end = tt.outOffset[source + 1];
+        for (int p = tt.outOffset[source], q; p < end; p = q) {
+            long start = tt.outDeparture[p];
+            // probe only departures whose own legs could still beat the best so far
+            long first = Long.MAX_VALUE;
+            for (q = p; q < end && tt.outDeparture[q] == start; q++) {
+                int leg = tt.outLegs[q];
+                int v = tt.legDestination[leg];
+                if (back.hops[v] >= 0) first = Math.min(first, tt.legArrival[leg] - start + back.duration[v]);
+            }
+            if (first >= limit) continue;
+            Arrays.fill(arrival, Long.MAX_VALUE);
+            arrival[source] = start;
+            int size = 0;
+            heap[size++] = (back.duration[source] << 32) | source;
+            while (size > 0) {
+                long top = heap[0];
+                heap[0] = heap[--size];
+                LowerBounds.siftDown(heap, size);
+                int u = (int) (top & 0xFFFFFFFFL);
+                long at = arrival[u];
+                if ((top >>> 32) > at - start + back.duration[u]) continue;
+                if (u == target) {
+                    limit = Math.min(limit, at - start);
+                    break;
+                }
+                expansions++;
+                for (int r = tt.outOffset[u]; r < tt.outOffset[u + 1]; r++) {
+                    int leg = tt.outLegs[r];
+                    int v = tt.legDestination[leg];
+                    if (back.hops[v] < 0) continue;
+                    long arr = CompiledTimetable.nextDeparture(tt.legDeparture[leg], at) + tt.legArrival[leg] - tt.legDeparture[leg];
+                    long f = arr - start + back.duration[v];
+                    if (arr >= arrival[v] || f >= limit) continue;
+                    arrival[v] = arr;
+                    if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+                    heap[size] = (f << 32) | v;
+                    LowerBounds.siftUp(heap, size++);
+                }
+            }
+        }
+        SearchCounters.current().add(0, expansions, 0, 0);
+        return limit;
+    }
+}
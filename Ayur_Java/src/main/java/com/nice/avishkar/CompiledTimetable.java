@@ -0,0 +1,690 @@
+package com.nice.avishkar;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class CompiledTimetable {
+
+    final long version;
+    // live legs; cancelled legs keep their slot until enough of them pile up to compact
+    final int size;
+    private final Map<String, Integer> stationIds;
+    final String[] stationNames;
+
+    // mode and HH:MM strings exactly as written in the file, for building routes
+    final String[] texts;
+    final int[] legMode;
+    final int[] legDepartureText;
+    final int[] legArrivalText;
+
+    // leg columns, indexed by schedule index; only legs present in the adjacency below are live
+    final int[] legSource;
+    final int[] legDestination;
+    final long[] legDeparture;
+    final long[] legArrival;
+    final long[] legCost;
+
+    // CSR adjacency: legs leaving station s are outLegs[outOffset[s] .. outOffset[s + 1]),
+    // ordered by departure minute so outDeparture can be binary searched
+    final int[] outOffset;
+    final int[] outLegs;
+    final long[] outDeparture;
+
+    // legs arriving at station s are inLegs[inOffset[s] .. inOffset[s + 1])
+    final int[] inOffset;
+    final int[] inLegs;
+
+    // every leg once, ordered by departure minute (ties in file order)
+    final int[] connections;
+
+    private CompiledTimetable(Columns c) {
+        int n = c.size;
+        this.version = 0;
+        this.size = n;
+        this.stationNames = c.stationNames();
+        this.texts = c.textNames();
+        this.legSource = Arrays.copyOf(c.source, n);
+        this.legDestination = Arrays.copyOf(c.destination, n);
+        this.legDeparture = Arrays.copyOf(c.departure, n);
+        this.legArrival = Arrays.copyOf(c.arrival, n);
+        this.legCost = Arrays.copyOf(c.cost, n);
+        this.legMode = Arrays.copyOf(c.mode, n);
+        this.legDepartureText = Arrays.copyOf(c.departureText, n);
+        this.legArrivalText = Arrays.copyOf(c.arrivalText, n);
+
+        Map<String, Integer> ids = new HashMap<>();
+        for (int s = 0; s < stationNames.length; s++) ids.put(stationNames[s], s);
+        this.stationIds = Collections.unmodifiableMap(ids);
+
+        int stations = stationNames.length;
+        outOffset = new int[stations + 1];
+        for (int i = 0; i < n; i++) outOffset[legSource[i] + 1]++;
+        for (int s = 0; s < stations; s++) outOffset[s + 1] += outOffset[s];
+        outLegs = new int[n];
+        outDeparture = new long[n];
+        int[] fill = new int[stations];
+        for (int i = 0; i < n; i++) {
+            int s = legSource[i];
+            outLegs[outOffset[s] + fill[s]++] = i;
+        }
+        for (int s = 0; s < stations; s++) {
+            sortByDeparture(outOffset[s], outOffset[s + 1]);
+        }
+        for (int p = 0; p < n; p++) outDeparture[p] = legDeparture[outLegs[p]];
+
+        inOffset = new int[stations + 1];
+        for (int i = 0; i < n; i++) inOffset[legDestination[i] + 1]++;
+        for (int s = 0; s < stations; s++) inOffset[s + 1] += inOffset[s];
+        inLegs = new int[n];
+        Arrays.fill(fill, 0);
+        for (int i = 0; i < n; i++) {
+            int s = legDestination[i];
+            inLegs[inOffset[s] + fill[s]++] = i;
+        }
+
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) keys[i] = (legDeparture[i] << 32) | i;
+        Arrays.sort(keys);
+        connections = new int[n];
+        for (int i = 0; i < n; i++) connections[i] = (int) keys[i];
+    }
+
+    // straight from a snapshot file; the arrays are used as they are
+    CompiledTimetable(long version, int size, String[] stationNames, String[] texts, int[] legSource, int[] legDestination,
+                      long[] legDeparture, long[] legArrival, long[] legCost, int[] legMode, int[] legDepartureText,
+                      int[] legArrivalText, int[] outOffset, int[] outLegs, long[] outDeparture, int[] inOffset, int[] inLegs,
+                      int[] connections) {
+        this.version = version;
+        this.size = size;
+        this.stationNames = stationNames;
+        this.texts = texts;
+        this.legSource = legSource;
+        this.legDestination = legDestination;
+        this.legDeparture = legDeparture;
+        this.legArrival = legArrival;
+        this.legCost = legCost;
+        this.legMode = legMode;
+        this.legDepartureText = legDepartureText;
+        this.legArrivalText = legArrivalText;
+        this.outOffset = outOffset;
+        this.outLegs = outLegs;
+        this.outDeparture = outDeparture;
+        this.inOffset = inOffset;
+        this.inLegs = inLegs;
+        this.connections = connections;
+        Map<String, Integer> ids = new HashMap<>(stationNames.length * 2);
+        for (int s = 0; s < stationNames.length; s++) ids.put(stationNames[s], s);
+        this.stationIds = Collections.unmodifiableMap(ids);
+    }
+
+    // a copy of base with the patch applied; base itself is never touched
+    private CompiledTimetable(Patch p) {
+        CompiledTimetable base = p.base;
+        int baseSlots = base.legSource.length;
+        int slots = baseSlots + p.count;
+        int live = 0;
+        for (int i = 0; i < slots; i++) {
+            if (!p.dead[i]) live++;
+        }
+        boolean compact = 2 * (slots - live) > slots;
+        int[] remap = new int[slots];
+        for (int i = 0, k = 0; i < slots; i++) remap[i] = p.dead[i] ? -1 : (compact ? k++ : i);
+
+        this.version = base.version + 1;
+        this.size = live;
+        this.stationNames = p.stationNames == null ? base.stationNames : p.stationNames.toArray(new String[0]);
+        this.stationIds = p.stationIds == null ? base.stationIds : Collections.unmodifiableMap(p.stationIds);
+        this.texts = p.texts == null ? base.texts : p.texts.toArray(new String[0]);
+
+        int n = compact ? live : slots;
+        if (compact) {
+            legSource = new int[n];
+            legDestination = new int[n];
+            legDeparture = new long[n];
+            legArrival = new long[n];
+            legCost = new long[n];
+            legMode = new int[n];
+            legDepartureText = new int[n];
+            legArrivalText = new int[n];
+            for (int i = 0; i < baseSlots; i++) {
+                int to = remap[i];
+                if (to < 0) continue;
+                legSource[to] = base.legSource[i];
+                legDestination[to] = base.legDestination[i];
+                legDeparture[to] = base.legDeparture[i];
+                legArrival[to] = base.legArrival[i];
+                legCost[to] = base.legCost[i];
+                legMode[to] = base.legMode[i];
+                legDepartureText[to] = base.legDepartureText[i];
+                legArrivalText[to] = base.legArrivalText[i];
+            }
+        } else {
+            legSource = Arrays.copyOf(base.legSource, n);
+            legDestination = Arrays.copyOf(base.legDestination, n);
+            legDeparture = Arrays.copyOf(base.legDeparture, n);
+            legArrival = Arrays.copyOf(base.legArrival, n);
+            legCost = Arrays.copyOf(base.legCost, n);
+            legMode = Arrays.copyOf(base.legMode, n);
+            legDepartureText = Arrays.copyOf(base.legDepartureText, n);
+            legArrivalText = Arrays.copyOf(base.legArrivalText, n);
+        }
+        for (int a = 0; a < p.count; a++) {
+            int to = remap[baseSlots + a];
+            if (to < 0) continue;
+            legSource[to] = p.source[a];
+            legDestination[to] = p.destination[a];
+            legDeparture[to] = p.departure[a];
+            legArrival[to] = p.arrival[a];
+            legCost[to] = p.cost[a];
+            legMode[to] = p.mode[a];
+            legDepartureText[to] = p.departureText[a];
+            legArrivalText[to] = p.arrivalText[a];
+        }
+
+        // added legs grouped by station, by departure within a station, in the order they were added
+        int stations = stationNames.length;
+        int oldStations = base.stationNames.length;
+        int[] added = new int[p.count];
+        int[] addedOffset = p.groupAdded(added, stations, true);
+
+        outOffset = new int[stations + 1];
+        outLegs = new int[live];
+        outDeparture = new long[live];
+        int w = 0;
+        for (int s = 0; s < stations; s++) {
+            outOffset[s] = w;
+            int i = s < oldStations ? base.outOffset[s] : 0;
+            int iEnd = s < oldStations ? base.outOffset[s + 1] : 0;
+            int j = addedOffset[s];
+            int jEnd = addedOffset[s + 1];
+            while (i < iEnd || j < jEnd) {
+                int slot;
+                // old legs have lower ids, so they go first on equal departure
+                if (j == jEnd || (i < iEnd && base.outDeparture[i] <= p.departure[added[j]])) slot = base.outLegs[i++];
+                else slot = baseSlots + added[j++];
+                int leg = remap[slot];
+                if (leg < 0) continue;
+                outLegs[w] = leg;
+                outDeparture[w++] = legDeparture[leg];
+            }
+        }
+        outOffset[stations] = w;
+
+        addedOffset = p.groupAdded(added, stations, false);
+        inOffset = new int[stations + 1];
+        inLegs = new int[live];
+        w = 0;
+        for (int s = 0; s < stations; s++) {
+            inOffset[s] = w;
+            if (s < oldStations) {
+                for (int i = base.inOffset[s]; i < base.inOffset[s + 1]; i++) {
+                    int leg = remap[base.inLegs[i]];
+                    if (leg >= 0) inLegs[w++] = leg;
+                }
+            }
+            for (int j = addedOffset[s]; j < addedOffset[s + 1]; j++) {
+                int leg = remap[baseSlots + added[j]];
+                if (leg >= 0) inLegs[w++] = leg;
+            }
+        }
+        inOffset[stations] = w;
+
+        int[] byDeparture = p.sortedAdded();
+        connections = new int[live];
+        w = 0;
+        for (int i = 0, j = 0; i < base.connections.length || j < byDeparture.length; ) {
+            int slot;
+            if (j == byDeparture.length || (i < base.connections.length
+                    && base.legDeparture[base.connections[i]] <= p.departure[byDeparture[j]])) slot = base.connections[i++];
+            else slot = baseSlots + byDeparture[j++];
+            int leg = remap[slot];
+            if (leg >= 0) connections[w++] = leg;
+        }
+    }
+
+    public static CompiledTimetable compile(ResourceInfo resourceInfo) throws IOException {
+        return compile(resourceInfo.getTransportSchedulePath());
+    }
+
+    public static CompiledTimetable compile(Path transportSchedulePath) throws IOException {
+        return new CompiledTimetable(readSchedules(transportSchedulePath));
+    }
+
+    /**
+     * Loads the snapshot when it is at least as new as the schedules file and still
+     * readable; otherwise compiles the schedules and rewrites the snapshot for next time.
+     */
+    public static CompiledTimetable compile(Path transportSchedulePath, Path snapshotPath) throws IOException {
+        if (Files.exists(snapshotPath)
+                && Files.getLastModifiedTime(snapshotPath).compareTo(Files.getLastModifiedTime(transportSchedulePath)) >= 0) {
+            try {
+                return load(snapshotPath);
+            } catch (IOException ex) {
+                // stale format or damaged file: fall through and rebuild it
+            }
+        }
+        CompiledTimetable timetable = compile(transportSchedulePath);
+        timetable.save(snapshotPath);
+        return timetable;
+    }
+
+    // binary snapshot of everything compiled, see TimetableSnapshot for the layout
+    public void save(Path snapshotPath) throws IOException {
+        TimetableSnapshot.write(this, snapshotPath);
+    }
+
+    public static CompiledTimetable load(Path snapshotPath) throws IOException {
+        return TimetableSnapshot.read(snapshotPath);
+    }
+
+    /**
+     * A new version of this timetable with the update applied, in time proportional to the
+     * timetable's size but without re-reading or re-parsing anything. This instance is
+     * unchanged, so queries already running on it finish on a consistent view. Legs are
+     * numbered as if added legs were appended to the file, so results match a full
+     * compile of the edited file. Throws IllegalArgumentException, leaving nothing
+     * applied, when a leg to remove is not in the timetable.
+     */
+    public CompiledTimetable apply(TimetableUpdate update) {
+        Patch p = new Patch(this);
+        for (TimetableUpdate.Change change : update.changes()) {
+            if (change.remove) p.remove(change.route);
+            else p.add(change.route, change.cost);
+        }
+        return new CompiledTimetable(p);
+    }
+
+    /**
+     * Computes the goal-direction bounds of the Pareto engine for every destination up
+     * front instead of on first use; worth it when most stations are asked for.
+     */
+    public void precomputeLowerBounds() {
+        LowerBounds.precomputeAll(this);
+    }
+
+    // 0 when compiled from a file, one more for every update applied since
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // highest leg id + 1, for per-leg scratch arrays
+    int legSlots() {
+        return legSource.length;
+    }
+
+    public int stationCount() {
+        return stationNames.length;
+    }
+
+    public int stationId(String station) {
+        Integer id = station == null ? null : stationIds.get(station);
+        return id == null ? -1 : id;
+    }
+
+    public String stationName(int id) {
+        return stationNames[id];
+    }
+
+    int outDegree(int station) {
+        return outOffset[station + 1] - outOffset[station];
+    }
+
+    /**
+     * Position in outLegs of the first leg leaving station at or after minuteOfDay,
+     * wrapping to the station's first leg of the day when none is left.
+     */
+    int firstDepartureAtOrAfter(int station, long minuteOfDay) {
+        int lo = outOffset[station];
+        int hi = outOffset[station + 1];
+        int end = hi;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (outDeparture[mid] < minuteOfDay) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo == end ? outOffset[station] : lo;
+    }
+
+    // fewest legs from source to every station ignoring departure times (every leg can be
+    // caught by waiting), -1 where a station cannot be reached at all
+    int[] distancesFrom(int source) {
+        int[] depth = new int[stationNames.length];
+        Arrays.fill(depth, -1);
+        int[] queue = new int[stationNames.length];
+        int head = 0, tail = 0;
+        queue[tail++] = source;
+        depth[source] = 0;
+        while (head < tail) {
+            int s = queue[head++];
+            for (int p = outOffset[s]; p < outOffset[s + 1]; p++) {
+                int d = legDestination[outLegs[p]];
+                if (depth[d] >= 0) continue;
+                depth[d] = depth[s] + 1;
+                queue[tail++] = d;
+            }
+        }
+        return depth;
+    }
+
+    // fewest legs from every station to target, -1 where target cannot be reached
+    int[] distancesTo(int target) {
+        int[] depth = new int[stationNames.length];
+        Arrays.fill(depth, -1);
+        int[] queue = new int[stationNames.length];
+        int head = 0, tail = 0;
+        queue[tail++] = target;
+        depth[target] = 0;
+        while (head < tail) {
+            int s = queue[head++];
+            for (int p = inOffset[s]; p < inOffset[s + 1]; p++) {
+                int u = legSource[inLegs[p]];
+                if (depth[u] >= 0) continue;
+                depth[u] = depth[s] + 1;
+                queue[tail++] = u;
+            }
+        }
+        return depth;
+    }
+
+    // first time at or after readyAt that a leg leaving daily at departure can be boarded
+    static long nextDeparture(long departure, long readyAt) {
+        long t = (readyAt / 1440) * 1440 + departure;
+        if (t < readyAt) t += 1440;
+        return t;
+    }
+
+    // minute of the day for a caller's HH:mm, rejecting anything else
+    static long clockMinutes(String time) {
+        if (time == null || !time.trim().matches("([01]?\\d|2[0-3]):[0-5]\\d")) throw new IllegalArgumentException("not an HH:mm time: " + time);
+        return TimetableUpdate.minutes(time.trim());
+    }
+
+    Route route(int leg) {
+        return new Route(stationNames[legSource[leg]], stationNames[legDestination[leg]], texts[legMode[leg]],
+                texts[legDepartureText[leg]], texts[legArrivalText[leg]]);
+    }
+
+    // insertion sort keeps legs with equal departure in file order; station fan-out is small
+    private void sortByDeparture(int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            int leg = outLegs[i];
+            long dep = legDeparture[leg];
+            int j = i - 1;
+            while (j >= from && legDeparture[outLegs[j]] > dep) {
+                outLegs[j + 1] = outLegs[j];
+                j--;
+            }
+            outLegs[j + 1] = leg;
+        }
+    }
+
+    /**
+     * A standalone timetable of just the given legs (ascending ids) and the stations they
+     * touch; leg i of the result is legs[i] here. Station ids are renumbered, names kept.
+     */
+    static CompiledTimetable subset(CompiledTimetable base, int[] legs) {
+        Columns c = new Columns();
+        int[] local = new int[base.stationNames.length];
+        Arrays.fill(local, -1);
+        List<String> names = new ArrayList<>();
+        for (int leg : legs) {
+            int i = c.next();
+            for (int end = 0; end < 2; end++) {
+                int s = end == 0 ? base.legSource[leg] : base.legDestination[leg];
+                if (local[s] < 0) {
+                    local[s] = names.size();
+                    names.add(base.stationNames[s]);
+                }
+            }
+            c.source[i] = local[base.legSource[leg]];
+            c.destination[i] = local[base.legDestination[leg]];
+            c.departure[i] = base.legDeparture[leg];
+            c.arrival[i] = base.legArrival[leg];
+            c.cost[i] = base.legCost[leg];
+            c.mode[i] = base.legMode[leg];
+            c.departureText[i] = base.legDepartureText[leg];
+            c.arrivalText[i] = base.legArrivalText[leg];
+        }
+        c.fixedStations = names.toArray(new String[0]);
+        c.fixedTexts = base.texts;
+        return new CompiledTimetable(c);
+    }
+
+    // streams the file once; station, mode and time strings are interned straight from the mapped bytes
+    private static Columns readSchedules(Path p) throws IOException {
+        Columns c = new Columns();
+        try (CsvScanner in = CsvScanner.open(p)) {
+            in.skipLine();
+            while (in.next()) {
+                if (in.fieldCount() < 6) continue;
+                c.add(in);
+            }
+        }
+        return c;
+    }
+
+    // the legs an update adds and removes, on top of a base timetable
+    private static final class Patch {
+        final CompiledTimetable base;
+        // copied from base on the first new station or text
+        List<String> stationNames;
+        Map<String, Integer> stationIds;
+        List<String> texts;
+        Map<String, Integer> textIds;
+
+        boolean[] dead;
+        int count;
+        int[] source = new int[16];
+        int[] destination = new int[16];
+        long[] departure = new long[16];
+        long[] arrival = new long[16];
+        long[] cost = new long[16];
+        int[] mode = new int[16];
+        int[] departureText = new int[16];
+        int[] arrivalText = new int[16];
+
+        Patch(CompiledTimetable base) {
+            this.base = base;
+            this.dead = new boolean[base.legSource.length + 16];
+            // slots cancelled by earlier updates are not in the adjacency
+            boolean[] listed = new boolean[base.legSource.length];
+            for (int leg : base.connections) listed[leg] = true;
+            for (int i = 0; i < listed.length; i++) dead[i] = !listed[i];
+        }
+
+        void add(Route route, long paid) {
+            if (count == source.length) {
+                int n = count * 2;
+                source = Arrays.copyOf(source, n);
+                destination = Arrays.copyOf(destination, n);
+                departure = Arrays.copyOf(departure, n);
+                arrival = Arrays.copyOf(arrival, n);
+                cost = Arrays.copyOf(cost, n);
+                mode = Arrays.copyOf(mode, n);
+                departureText = Arrays.copyOf(departureText, n);
+                arrivalText = Arrays.copyOf(arrivalText, n);
+            }
+            int slot = base.legSource.length + count;
+            if (slot == dead.length) dead = Arrays.copyOf(dead, dead.length * 2);
+            int a = count++;
+            source[a] = station(route.getSource());
+            destination[a] = station(route.getDestination());
+            mode[a] = text(route.getMode());
+            departureText[a] = text(route.getDepartureTime());
+            arrivalText[a] = text(route.getArrivalTime());
+            long dep = TimetableUpdate.minutes(route.getDepartureTime());
+            long arr = TimetableUpdate.minutes(route.getArrivalTime());
+            departure[a] = dep;
+            arrival[a] = arr >= dep ? arr : arr + 1440;
+            cost[a] = paid;
+        }
+
+        // cancels the first live leg matching the route, earlier in the file first
+        void remove(Route route) {
+            int s = stationId(route.getSource());
+            int d = stationId(route.getDestination());
+            long dep = TimetableUpdate.minutes(route.getDepartureTime());
+            long arr = TimetableUpdate.minutes(route.getArrivalTime());
+            if (arr < dep) arr += 1440;
+            String m = route.getMode();
+            int baseSlots = base.legSource.length;
+            if (s >= 0 && s < base.stationNames.length) {
+                int match = -1;
+                for (int p = base.firstDepartureAtOrAfter(s, dep); p < base.outOffset[s + 1] && base.outDeparture[p] == dep; p++) {
+                    int leg = base.outLegs[p];
+                    if (dead[leg] || base.legDestination[leg] != d || base.legArrival[leg] != arr) continue;
+                    if (!base.texts[base.legMode[leg]].equals(m)) continue;
+                    if (match < 0 || leg < match) match = leg;
+                }
+                if (match >= 0) {
+                    dead[match] = true;
+                    return;
+                }
+            }
+            for (int a = 0; a < count; a++) {
+                if (dead[baseSlots + a] || source[a] != s || destination[a] != d || departure[a] != dep || arrival[a] != arr) continue;
+                if (!textName(mode[a]).equals(m)) continue;
+                dead[baseSlots + a] = true;
+                return;
+            }
+            throw new IllegalArgumentException("no leg " + route.getSource() + " -> " + route.getDestination() + " "
+                    + m + " " + route.getDepartureTime() + "-" + route.getArrivalTime());
+        }
+
+        // fills order with added indices grouped by source (or destination) station and returns the offsets
+        int[] groupAdded(int[] order, int stations, boolean bySource) {
+            int[] at = bySource ? source : destination;
+            int[] offset = new int[stations + 1];
+            for (int a = 0; a < count; a++) offset[at[a] + 1]++;
+            for (int s = 0; s < stations; s++) offset[s + 1] += offset[s];
+            int[] fill = new int[stations];
+            for (int a = 0; a < count; a++) order[offset[at[a]] + fill[at[a]]++] = a;
+            if (bySource) {
+                for (int s = 0; s < stations; s++) sortByDeparture(order, offset[s], offset[s + 1]);
+            }
+            return offset;
+        }
+
+        int[] sortedAdded() {
+            int[] order = new int[count];
+            for (int a = 0; a < count; a++) order[a] = a;
+            sortByDeparture(order, 0, count);
+            return order;
+        }
+
+        private void sortByDeparture(int[] order, int from, int to) {
+            for (int i = from + 1; i < to; i++) {
+                int a = order[i];
+                int j = i - 1;
+                while (j >= from && departure[order[j]] > departure[a]) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = a;
+            }
+        }
+
+        private int stationId(String name) {
+            if (stationIds != null) {
+                Integer id = name == null ? null : stationIds.get(name);
+                return id == null ? -1 : id;
+            }
+            return base.stationId(name);
+        }
+
+        private int station(String name) {
+            int id = stationId(name);
+            if (id >= 0) return id;
+            if (stationIds == null) {
+                stationNames = new ArrayList<>(Arrays.asList(base.stationNames));
+                stationIds = new HashMap<>(base.stationIds);
+            }
+            stationNames.add(name);
+            stationIds.put(name, stationNames.size() - 1);
+            return stationNames.size() - 1;
+        }
+
+        private int text(String value) {
+            if (textIds == null) {
+                textIds = new HashMap<>();
+                for (int t = 0; t < base.texts.length; t++) textIds.putIfAbsent(base.texts[t], t);
+            }
+            Integer id = textIds.get(value);
+            if (id != null) return id;
+            if (texts == null) texts = new ArrayList<>(Arrays.asList(base.texts));
+            texts.add(value);
+            textIds.put(value, texts.size() - 1);
+            return texts.size() - 1;
+        }
+
+        private String textName(int id) {
+            return texts == null ? base.texts[id] : texts.get(id);
+        }
+    }
+
+    private static final class Columns {
+        final CsvScanner.Interner stations = new CsvScanner.Interner();
+        final CsvScanner.Interner texts = new CsvScanner.Interner();
+        int size;
+        int[] source = new int[1024];
+        int[] destination = new int[1024];
+        long[] departure = new long[1024];
+        long[] arrival = new long[1024];
+        long[] cost = new long[1024];
+        int[] mode = new int[1024];
+        int[] departureText = new int[1024];
+        int[] arrivalText = new int[1024];
+
+        // set when the columns come from another timetable rather than a file
+        String[] fixedStations;
+        String[] fixedTexts;
+
+        String[] stationNames() {
+            return fixedStations != null ? fixedStations : stations.names();
+        }
+
+        String[] textNames() {
+            return fixedTexts != null ? fixedTexts : texts.names();
+        }
+
+        void add(CsvScanner in) {
+            int i = next();
+            source[i] = stations.intern(in, 0);
+            destination[i] = stations.intern(in, 1);
+            mode[i] = texts.intern(in, 2);
+            departureText[i] = texts.intern(in, 3);
+            arrivalText[i] = texts.intern(in, 4);
+            long dep = in.parseMinutes(3);
+            long arr = in.parseMinutes(4);
+            departure[i] = dep;
+            arrival[i] = arr >= dep ? arr : arr + 1440;
+            cost[i] = in.parseLong(5, 0L);
+        }
+
+        private int next() {
+            if (size == source.length) {
+                int n = size * 2;
+                source = Arrays.copyOf(source, n);
+                destination = Arrays.copyOf(destination, n);
+                departure = Arrays.copyOf(departure, n);
+                arrival = Arrays.copyOf(arrival, n);
+                cost = Arrays.copyOf(cost, n);
+                mode = Arrays.copyOf(mode, n);
+                departureText = Arrays.copyOf(departureText, n);
+                arrivalText = Arrays.copyOf(arrivalText, n);
+            }
+            return size++;
+        }
+    }
+}
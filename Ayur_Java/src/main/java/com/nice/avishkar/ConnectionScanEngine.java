@@ -0,0 +1,362 @@
+package com.nice.avishkar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Connection Scan over the departure-sorted connection array, unrolled over as many
+// days as needed. One backward scan computes, for every connection, the best
+// (arrival, cost, hops) at the target when riding it; per-station profiles keep
+// only the entries that beat every later departure, so the best journey from
+// each source departure falls out of the same scan.
+final class ConnectionScanEngine {
+
+    private static final long MINUTES_PER_DAY = 1440;
+
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+
+    private ConnectionScanEngine() {
+    }
+
+    static Journey fastest(CompiledTimetable tt, int source, int target) {
+        return fastestTo(tt, new int[] { source }, target)[0];
+    }
+
+    // the backward scan answers every source at once, so batches share one scan per target
+    static Journey[] fastestTo(CompiledTimetable tt, int[] sources, int target) {
+        if (target < 0) return new Journey[sources.length];
+        return fastestTo(tt, sources, target, tt.distancesTo(target), tt.connections);
+    }
+
+    // the scan over only the given connections, a departure-ordered part of tt.connections;
+    // toTarget is tt.distancesTo(target)
+    static Journey fastestWithin(CompiledTimetable tt, int source, int target, int[] toTarget, int[] connections) {
+        return fastestTo(tt, new int[] { source }, target, toTarget, connections)[0];
+    }
+
+    // The (departure, arrival) Pareto set of journeys leaving source between minutes from and
+    // to (to < from wraps past midnight), earliest departure first: each arrives strictly
+    // before anything that leaves later, inside the window or not. The source's profile
+    // from one scan already holds them, latest departure first.
+    static List<Journey> profile(CompiledTimetable tt, int source, int target, long from, long to) {
+        List<Journey> out = new ArrayList<>();
+        if (source < 0 || target < 0 || source == target) return out;
+        int[] toTarget = tt.distancesTo(target);
+        if (toTarget[source] < 0) return out;
+        if (to < from) to += MINUTES_PER_DAY;
+
+        // the window is settled once some journey leaves at or after its end inside the
+        // horizon; the fewest-legs route from any minute bounds how far that can be
+        int[] connections = tt.connections;
+        int n = connections.length;
+        int maxDays = 2 * toTarget[source] + 4;
+        int days = 2;
+        Journey[] unused = new Journey[1];
+        Workspace ws = WORKSPACE.get();
+        while (true) {
+            scan(tt, connections, new int[] { source }, toTarget, target, days, unused);
+            int base = days * tt.outOffset[source];
+            int count = ws.count[source];
+            if ((count > 0 && ws.departure[ws.profile[base]] >= to) || days >= maxDays) {
+                // an entry only enters the profile when it beats the one before, so an entry at
+                // that one's minute replaces it, while an earlier one arriving just as late
+                // (only cheaper) is dominated
+                long bestArrival = Long.MAX_VALUE;
+                long lastDeparture = -1;
+                for (int k = 0; k < count; k++) {
+                    int c = ws.profile[base + k];
+                    long dep = ws.departure[c];
+                    if (dep < from) break;
+                    if (dep == lastDeparture) {
+                        if (!out.isEmpty() && out.get(out.size() - 1).departure == dep) out.remove(out.size() - 1);
+                    } else if (ws.arrival[c] == bestArrival) {
+                        continue;
+                    }
+                    bestArrival = ws.arrival[c];
+                    lastDeparture = dep;
+                    if (dep <= to) out.add(journey(ws, connections, c, n));
+                }
+                Collections.reverse(out);
+                return out;
+            }
+            days = Math.min(days * 2, maxDays);
+        }
+    }
+
+    private static Journey[] fastestTo(CompiledTimetable tt, int[] sources, int target, int[] toTarget, int[] connections) {
+        Journey[] out = new Journey[sources.length];
+        settle(tt, sources, target, toTarget, connections, out);
+        return out;
+    }
+
+    // the fastest journey from each source into fastest[i], and up to alternatives[i] other
+    // journeys behind it, next fastest first, read off the same scan's labels
+    static List<List<Journey>> alternativesTo(CompiledTimetable tt, int[] sources, int target, int[] alternatives, Journey[] fastest) {
+        List<List<Journey>> out = new ArrayList<>(sources.length);
+        if (target < 0) {
+            for (int i = 0; i < sources.length; i++) out.add(new ArrayList<>());
+            return out;
+        }
+        int[] connections = tt.connections;
+        int days = settle(tt, sources, target, tt.distancesTo(target), connections, fastest);
+        int[] position = new int[tt.legSource.length];
+        for (int i = 0; i < connections.length; i++) position[connections[i]] = i;
+        for (int i = 0; i < sources.length; i++) {
+            out.add(fastest[i] == null || alternatives[i] <= 0 ? new ArrayList<>()
+                    : sidetracks(tt, connections, position, sources[i], days, fastest[i], alternatives[i]));
+        }
+        return out;
+    }
+
+    // number of days the scan left in the workspace ran over, 0 when there was nothing to scan
+    private static int settle(CompiledTimetable tt, int[] sources, int target, int[] toTarget, int[] connections, Journey[] out) {
+        int maxLegs = -1;
+        for (int s : sources) {
+            if (s >= 0 && s != target) maxLegs = Math.max(maxLegs, toTarget[s]);
+        }
+        if (maxLegs < 0) return 0;
+
+        // a journey over `days` days is exact once its duration fits in days - 1; the
+        // fewest-legs route is always within 2 * legs + 1 days, which bounds the search
+        int maxDays = 2 * maxLegs + 2;
+        int days = 2;
+        while (true) {
+            scan(tt, connections, sources, toTarget, target, days, out);
+            boolean exact = true;
+            for (int i = 0; i < sources.length && exact; i++) {
+                int s = sources[i];
+                if (s < 0 || s == target || toTarget[s] < 0) continue;
+                exact = out[i] != null && out[i].duration() <= (days - 1) * MINUTES_PER_DAY;
+            }
+            if (exact || days >= maxDays) return days;
+            days = Math.min(days * 2, maxDays);
+        }
+    }
+
+    // The best continuations of all connections form a tree towards the target, and any other
+    // journey leaves the journey it is compared with once for good, boarding a different
+    // connection (a sidetrack) and then following the tree. A candidate is a fixed prefix plus
+    // one sidetrack and so is worth exactly its sidetrack's label; since no sidetrack beats the
+    // tree's own choice, taking candidates best first and branching only after the last
+    // sidetrack lists every journey once, in order, without another scan. Leg sequences seen
+    // before (the same legs a day later) and journeys revisiting a station are not listed.
+    private static List<Journey> sidetracks(CompiledTimetable tt, int[] connections, int[] position, int source, int days, Journey fastest, int count) {
+        Workspace ws = WORKSPACE.get();
+        int n = connections.length;
+        List<Journey> out = new ArrayList<>(count);
+        java.util.Set<String> seen = new java.util.HashSet<>();
+        PriorityQueue<Sidetrack> queue = new PriorityQueue<>();
+        for (int p = tt.outOffset[source]; p < tt.outOffset[source + 1]; p++) {
+            int c = position[tt.outLegs[p]];
+            if (ws.hops[c] > 0) queue.add(new Sidetrack(new int[0], c, ws.departure[c], 0, ws));
+        }
+        long pushes = queue.size();
+        long expansions = 0;
+        int polls = Alternatives.pollLimit(count);
+        while (!queue.isEmpty() && out.size() < count && polls-- > 0) {
+            Sidetrack top = queue.poll();
+            int[] chain = Arrays.copyOf(top.prefix, top.hops);
+            for (int c = top.connection, k = top.prefix.length; c >= 0; c = ws.next[c]) chain[k++] = c;
+            int[] legs = new int[chain.length];
+            for (int k = 0; k < chain.length; k++) legs[k] = connections[chain[k] % n];
+            if (!seen.add(Arrays.toString(legs))) continue;
+            if (!Arrays.equals(legs, fastest.legs) && Alternatives.simple(tt, source, legs)) {
+                out.add(new Journey(legs, top.departure, top.arrival, top.cost));
+            }
+
+            expansions++;
+            long prefixCost = 0;
+            for (int k = 0; k < chain.length - 1; k++) {
+                int leg = legs[k];
+                prefixCost += tt.legCost[leg];
+                if (k < top.prefix.length) continue;
+                int v = tt.legDestination[leg];
+                long ready = chain[k] / n * MINUTES_PER_DAY + tt.legArrival[leg];
+                int[] prefix = Arrays.copyOf(chain, k + 1);
+                for (int p = tt.outOffset[v]; p < tt.outOffset[v + 1]; p++) {
+                    int i = position[tt.outLegs[p]];
+                    for (int day = 0; day < days; day++) {
+                        int c = day * n + i;
+                        if (c == chain[k + 1] || ws.hops[c] <= 0 || ws.departure[c] < ready) continue;
+                        queue.add(new Sidetrack(prefix, c, top.departure, prefixCost, ws));
+                        pushes++;
+                    }
+                }
+            }
+        }
+        SearchCounters.current().add(pushes, expansions, 0, out.size() < count && !queue.isEmpty() ? 1 : 0);
+        return out;
+    }
+
+    private static void scan(CompiledTimetable tt, int[] connections, int[] sources, int[] toTarget, int target, int days, Journey[] out) {
+        int n = connections.length;
+        int stations = tt.stationCount();
+        Workspace ws = WORKSPACE.get();
+        ws.reset(n * days, tt.outLegs.length * days, stations);
+        long expansions = 0;
+        long pushes = 0;
+        long prunes = 0;
+        for (int s : sources) {
+            if (s >= 0 && s != target && toTarget[s] >= 0) ws.bestAt[s] = -2;
+        }
+
+        for (int day = days - 1; day >= 0; day--) {
+            long dayBase = day * MINUTES_PER_DAY;
+            for (int i = n - 1; i >= 0; i--) {
+                int c = day * n + i;
+                int leg = connections[i];
+                int u = tt.legSource[leg];
+                int v = tt.legDestination[leg];
+                // no label for this connection in this scan
+                ws.hops[c] = 0;
+                if (toTarget[u] < 0) continue;
+                expansions++;
+                long dep = dayBase + tt.legDeparture[leg];
+                long arr = dayBase + tt.legArrival[leg];
+
+                long la;
+                long lc;
+                int lh;
+                int next;
+                if (v == target) {
+                    la = arr;
+                    lc = tt.legCost[leg];
+                    lh = 1;
+                    next = -1;
+                } else {
+                    next = ws.query(v, days * tt.outOffset[v], arr);
+                    if (next < 0) continue;
+                    la = ws.arrival[next];
+                    lc = ws.cost[next] + tt.legCost[leg];
+                    lh = ws.hops[next] + 1;
+                }
+                ws.departure[c] = dep;
+                ws.arrival[c] = la;
+                ws.cost[c] = lc;
+                ws.hops[c] = lh;
+                ws.next[c] = next;
+
+                int best = ws.bestAt[u];
+                if (day == 0 && best != -1) {
+                    long d = la - dep;
+                    if (best == -2) {
+                        ws.bestAt[u] = c;
+                    } else {
+                        long bd = ws.arrival[best] - ws.departure[best];
+                        if (d < bd || (d == bd && (lc < ws.cost[best] || (lc == ws.cost[best] && lh < ws.hops[best])))) {
+                            ws.bestAt[u] = c;
+                        }
+                    }
+                }
+                if (u == target) continue;
+                if (ws.offer(u, days * tt.outOffset[u], c)) pushes++;
+                else prunes++;
+            }
+        }
+        SearchCounters.current().add(pushes, expansions, prunes, 0);
+
+        for (int i = 0; i < sources.length; i++) {
+            int s = sources[i];
+            int best = s < 0 ? -1 : ws.bestAt[s];
+            if (best < 0) {
+                out[i] = null;
+                continue;
+            }
+            out[i] = journey(ws, connections, best, n);
+        }
+    }
+
+    private static Journey journey(Workspace ws, int[] connections, int first, int n) {
+        int[] legs = new int[ws.hops[first]];
+        for (int c = first, k = 0; c >= 0; c = ws.next[c]) legs[k++] = connections[c % n];
+        return new Journey(legs, ws.departure[first], ws.arrival[first], ws.cost[first]);
+    }
+
+    // a journey that rides the prefix connections, then connection and its best continuation
+    private static final class Sidetrack implements Comparable<Sidetrack> {
+        final int[] prefix;
+        final int connection;
+        final long departure;
+        final long arrival;
+        final long cost;
+        final int hops;
+
+        Sidetrack(int[] prefix, int connection, long departure, long prefixCost, Workspace ws) {
+            this.prefix = prefix;
+            this.connection = connection;
+            this.departure = prefix.length == 0 ? ws.departure[connection] : departure;
+            this.arrival = ws.arrival[connection];
+            this.cost = prefixCost + ws.cost[connection];
+            this.hops = prefix.length + ws.hops[connection];
+        }
+
+        @Override
+        public int compareTo(Sidetrack o) {
+            int c = Long.compare(arrival - departure, o.arrival - o.departure);
+            if (c == 0) c = Long.compare(cost, o.cost);
+            if (c == 0) c = Integer.compare(hops, o.hops);
+            return c;
+        }
+    }
+
+    private static final class Workspace {
+        long[] departure = new long[0];
+        long[] arrival = new long[0];
+        long[] cost = new long[0];
+        int[] hops = new int[0];
+        int[] next = new int[0];
+        // profile entries of station s live at [base(s), base(s) + count[s]), latest departure first
+        int[] profile = new int[0];
+        int[] count = new int[0];
+        // best starting connection per requested source, -2 while none, -1 when not requested
+        int[] bestAt = new int[0];
+
+        // profiles are laid out by station over slots = days * out-legs, which a partial scan may not fill
+        void reset(int connections, int slots, int stations) {
+            if (departure.length < connections) {
+                departure = new long[connections];
+                arrival = new long[connections];
+                cost = new long[connections];
+                hops = new int[connections];
+                next = new int[connections];
+            }
+            if (profile.length < slots) profile = new int[slots];
+            if (count.length < stations) {
+                count = new int[stations];
+                bestAt = new int[stations];
+            }
+            java.util.Arrays.fill(count, 0, stations, 0);
+            java.util.Arrays.fill(bestAt, 0, stations, -1);
+        }
+
+        // entry with the earliest departure at or after t, which is also the best one
+        int query(int station, int base, long t) {
+            int lo = 0;
+            int hi = count[station];
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (departure[profile[base + mid]] >= t) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo == 0 ? -1 : profile[base + lo - 1];
+        }
+
+        // false when an entry departing no earlier is at least as good
+        boolean offer(int station, int base, int c) {
+            int k = count[station];
+            if (k > 0) {
+                int last = profile[base + k - 1];
+                if (arrival[c] > arrival[last]) return false;
+                if (arrival[c] == arrival[last]) {
+                    if (cost[c] > cost[last]) return false;
+                    if (cost[c] == cost[last] && hops[c] >= hops[last]) return false;
+                }
+            }
+            profile[base + k] = c;
+            count[station] = k + 1;
+            return true;
+        }
+    }
+}
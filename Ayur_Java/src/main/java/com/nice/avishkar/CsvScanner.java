@@ -0,0 +1,264 @@
+package com.nice.avishkar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Forward-only CSV reader over a memory-mapped file. Records are parsed in place:
+// fields are byte ranges of the current window and only turn into Strings on request,
+// so a caller that interns or parses numbers never copies a line. Follows the old
+// readAllLines / trim / split(",") rules: \n, \r and \r\n end a line, blank lines are
+// skipped and trailing empty fields are dropped.
+final class CsvScanner implements Closeable {
+
+    private static final long WINDOW = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long window;
+    private MappedByteBuffer buffer;
+    private long windowStart;
+    private int windowLength;
+    private int position;
+    // a \r ended the window, so a leading \n in the next one belongs to it
+    private boolean pendingLf;
+
+    private int[] fieldStart = new int[8];
+    private int[] fieldEnd = new int[8];
+    private int fields;
+
+    private CsvScanner(FileChannel channel, long window) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        this.window = window;
+        map(0, window);
+    }
+
+    static CsvScanner open(Path path) throws IOException {
+        return open(path, WINDOW);
+    }
+
+    static CsvScanner open(Path path, long window) throws IOException {
+        return new CsvScanner(FileChannel.open(path, StandardOpenOption.READ), window);
+    }
+
+    // consumes one raw line, blank or not; used for the header
+    void skipLine() throws IOException {
+        skipPendingLf();
+        int end = lineEnd();
+        position = end;
+        consumeTerminator();
+    }
+
+    // advances to the next non-blank line; false at end of file
+    boolean next() throws IOException {
+        while (true) {
+            skipPendingLf();
+            if (windowStart + position >= fileSize) return false;
+            int end = lineEnd();
+            int start = position;
+            position = end;
+            consumeTerminator();
+
+            // bytes are signed, and UTF-8 bytes past ASCII must not read as whitespace
+            while (start < end && (buffer.get(start) & 0xFF) <= ' ') start++;
+            while (end > start && (buffer.get(end - 1) & 0xFF) <= ' ') end--;
+            if (start == end) continue;
+
+            fields = 0;
+            int from = start;
+            for (int i = start; i <= end; i++) {
+                if (i < end && buffer.get(i) != ',') continue;
+                if (fields == fieldStart.length) {
+                    fieldStart = Arrays.copyOf(fieldStart, fields * 2);
+                    fieldEnd = Arrays.copyOf(fieldEnd, fields * 2);
+                }
+                fieldStart[fields] = from;
+                fieldEnd[fields] = i;
+                fields++;
+                from = i + 1;
+            }
+            while (fields > 0 && fieldStart[fields - 1] == fieldEnd[fields - 1]) fields--;
+            return true;
+        }
+    }
+
+    int fieldCount() {
+        return fields;
+    }
+
+    String field(int i) {
+        int len = fieldEnd[i] - fieldStart[i];
+        byte[] bytes = new byte[len];
+        for (int k = 0; k < len; k++) bytes[k] = buffer.get(fieldStart[i] + k);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    long parseLong(int i, long fallback) {
+        int p = fieldStart[i];
+        int end = fieldEnd[i];
+        if (p == end) return fallback;
+        boolean negative = false;
+        byte first = buffer.get(p);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++p == end) return fallback;
+        }
+        long value = 0;
+        for (; p < end; p++) {
+            int d = buffer.get(p) - '0';
+            if (d < 0 || d > 9) return fallback;
+            if (value > (Long.MAX_VALUE - d) / 10) return fallback;
+            value = value * 10 + d;
+        }
+        return negative ? -value : value;
+    }
+
+    // "HH:MM" (anything after a second ':' ignored) into minutes of day, 0 when malformed
+    long parseMinutes(int i) {
+        int start = fieldStart[i];
+        int end = fieldEnd[i];
+        int colon = start;
+        while (colon < end && buffer.get(colon) != ':') colon++;
+        if (colon == end) return 0;
+        int stop = colon + 1;
+        while (stop < end && buffer.get(stop) != ':') stop++;
+        long hh = parseInt(start, colon);
+        long mm = parseInt(colon + 1, stop);
+        if (hh == Long.MIN_VALUE || mm == Long.MIN_VALUE) return 0;
+        return hh * 60L + mm;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long parseInt(int p, int end) {
+        if (p == end) return Long.MIN_VALUE;
+        boolean negative = false;
+        byte first = buffer.get(p);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++p == end) return Long.MIN_VALUE;
+        }
+        long value = 0;
+        for (; p < end; p++) {
+            int d = buffer.get(p) - '0';
+            if (d < 0 || d > 9 || value > Integer.MAX_VALUE) return Long.MIN_VALUE;
+            value = value * 10 + d;
+        }
+        if (value > Integer.MAX_VALUE + (negative ? 1L : 0L)) return Long.MIN_VALUE;
+        return negative ? -value : value;
+    }
+
+    // end of the current line within the window, remapping when it runs past the window
+    private int lineEnd() throws IOException {
+        while (true) {
+            for (int i = position; i < windowLength; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n' || b == '\r') return i;
+            }
+            if (windowStart + windowLength >= fileSize) return windowLength;
+            long length = position == 0 ? (long) windowLength * 2 : window;
+            map(windowStart + position, length);
+        }
+    }
+
+    // never remaps, so the byte ranges of the line just read stay valid
+    private void consumeTerminator() {
+        if (position >= windowLength) return;
+        byte b = buffer.get(position++);
+        if (b != '\r') return;
+        if (position >= windowLength) pendingLf = true;
+        else if (buffer.get(position) == '\n') position++;
+    }
+
+    private void skipPendingLf() throws IOException {
+        if (!pendingLf) return;
+        pendingLf = false;
+        if (position >= windowLength && windowStart + windowLength < fileSize) map(windowStart + position, window);
+        if (position < windowLength && buffer.get(position) == '\n') position++;
+    }
+
+    private void map(long start, long length) throws IOException {
+        long len = Math.min(Math.min(length, Integer.MAX_VALUE), fileSize - start);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+        windowStart = start;
+        windowLength = (int) len;
+        position = 0;
+    }
+
+    // assigns dense ids to distinct field values, decoding each value only the first time it is seen
+    static final class Interner {
+        private byte[][] keys = new byte[64][];
+        private int[] ids = new int[64];
+        private String[] names = new String[16];
+        private int size;
+
+        int intern(CsvScanner scanner, int field) {
+            int start = scanner.fieldStart[field];
+            int end = scanner.fieldEnd[field];
+            MappedByteBuffer buf = scanner.buffer;
+            int h = 1;
+            for (int p = start; p < end; p++) h = 31 * h + buf.get(p);
+            int mask = keys.length - 1;
+            int slot = mix(h) & mask;
+            while (keys[slot] != null) {
+                if (matches(keys[slot], buf, start, end)) return ids[slot];
+                slot = (slot + 1) & mask;
+            }
+            byte[] key = new byte[end - start];
+            for (int k = 0; k < key.length; k++) key[k] = buf.get(start + k);
+            if (size == names.length) names = Arrays.copyOf(names, size * 2);
+            names[size] = new String(key, StandardCharsets.UTF_8);
+            keys[slot] = key;
+            ids[slot] = size;
+            if (2 * ++size > keys.length) grow();
+            return size - 1;
+        }
+
+        int size() {
+            return size;
+        }
+
+        String[] names() {
+            return Arrays.copyOf(names, size);
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new byte[oldKeys.length * 2][];
+            ids = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                byte[] key = oldKeys[j];
+                if (key == null) continue;
+                int h = 1;
+                for (byte b : key) h = 31 * h + b;
+                int slot = mix(h) & mask;
+                while (keys[slot] != null) slot = (slot + 1) & mask;
+                keys[slot] = key;
+                ids[slot] = oldIds[j];
+            }
+        }
+
+        private static boolean matches(byte[] key, MappedByteBuffer buf, int start, int end) {
+            if (key.length != end - start) return false;
+            for (int k = 0; k < key.length; k++) {
+                if (key[k] != buf.get(start + k)) return false;
+            }
+            return true;
+        }
+
+        private static int mix(int h) {
+            return h ^ (h >>> 16) ^ (h >>> 7);
+        }
+    }
+}
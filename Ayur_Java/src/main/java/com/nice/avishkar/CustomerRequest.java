@@ -0,0 +1,142 @@
+package com.nice.avishkar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class CustomerRequest {
+    String requestId;
+    String customerName;
+    String source;
+    String destination;
+    String criteria;
+    SearchEngine engine;
+    int alternatives;
+    SearchBudget budget;
+
+    public CustomerRequest(String requestId, String customerName, String source, String destination, String criteria) {
+        this(requestId, customerName, source, destination, criteria, null);
+    }
+
+    public CustomerRequest(String requestId, String customerName, String source, String destination, String criteria, SearchEngine engine) {
+        this(requestId, customerName, source, destination, criteria, engine, 0);
+    }
+
+    /**
+     * alternatives is how many itineraries to list besides the optimal one, at most: fewer
+     * come back when fewer exist or the search for them gives up first.
+     */
+    public CustomerRequest(String requestId, String customerName, String source, String destination, String criteria, SearchEngine engine,
+                           int alternatives) {
+        this(requestId, customerName, source, destination, criteria, engine, alternatives, null);
+    }
+
+    /** A budget, when given, has the request answered by the anytime search within it. */
+    public CustomerRequest(String requestId, String customerName, String source, String destination, String criteria, SearchEngine engine,
+                           int alternatives, SearchBudget budget) {
+        if (alternatives < 0) throw new IllegalArgumentException("negative number of alternatives: " + alternatives);
+        this.requestId = requestId;
+        this.customerName = customerName;
+        this.source = source;
+        this.destination = destination;
+        this.criteria = criteria;
+        this.engine = engine;
+        this.alternatives = alternatives;
+        this.budget = budget;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public String getCustomerName() {
+        return customerName;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public String getCriteria() {
+        return criteria;
+    }
+
+    public SearchEngine getEngine() {
+        return engine;
+    }
+
+    // an upper bound on the schedule's alternatives, not a promise
+    public int getAlternatives() {
+        return alternatives;
+    }
+
+    public SearchBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Reads a CustomerRequests.csv one record at a time; close it when done.
+     * An optional sixth column names the search engine for that request, and an optional
+     * seventh how many alternative itineraries to list besides the optimal one, and an
+     * optional eighth a search budget ("250ms" or a number of expansions).
+     */
+    public static Reader read(Path customerRequestPath) throws IOException {
+        return new Reader(CsvScanner.open(customerRequestPath));
+    }
+
+    public static final class Reader implements Iterator<CustomerRequest>, Closeable {
+        private final CsvScanner in;
+        private CustomerRequest next;
+
+        private Reader(CsvScanner in) throws IOException {
+            this.in = in;
+            in.skipLine();
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null && in.next()) {
+                    if (in.fieldCount() < 5) continue;
+                    SearchEngine engine = in.fieldCount() > 5 ? SearchEngine.parse(in.field(5)) : null;
+                    int alternatives = in.fieldCount() > 6 ? alternatives(in.field(6)) : 0;
+                    SearchBudget budget = in.fieldCount() > 7 ? SearchBudget.parse(in.field(7)) : null;
+                    next = new CustomerRequest(in.field(0), in.field(1), in.field(2), in.field(3), in.field(4), engine, alternatives, budget);
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return next != null;
+        }
+
+        private static int alternatives(String field) {
+            String count = field.trim();
+            if (count.isEmpty()) return 0;
+            try {
+                return Integer.parseInt(count);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("not a number of alternatives: " + field, ex);
+            }
+        }
+
+        @Override
+        public CustomerRequest next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            CustomerRequest r = next;
+            next = null;
+            return r;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -1,8 +1,19 @@
 package com.nice.avishkar;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 public interface ITravelOptimizer {
     Map<String, OptimalTravelSchedule> getOptimalTravelOptions(ResourceInfo resourceInfo) throws IOException;
+
+    Map<String, OptimalTravelSchedule> getOptimalTravelOptions(CompiledTimetable timetable, Path customerRequestPath) throws IOException;
+
+    void streamOptimalTravelOptions(CompiledTimetable timetable, Path customerRequestPath,
+                                    BiConsumer<String, OptimalTravelSchedule> consumer) throws IOException;
+
+    void streamOptimalTravelOptions(CompiledTimetable timetable, Iterator<CustomerRequest> requests,
+                                    BiConsumer<String, OptimalTravelSchedule> consumer);
 }
@@ -0,0 +1,162 @@
+package com.nice.avishkar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Everything reachable from one source when leaving at or after a given time, settled in a
+ * single search. Per station it holds one best journey under the criteria: the earliest
+ * arrival (Time), the lowest fare (Cost) or the fewest legs (Hops), exact, with the journey's
+ * other two values alongside; ties lean towards earlier, cheaper and fewer legs as far as
+ * one label per station can tell them apart. Legs are boarded at their next daily departure
+ * as in every other search, so journeys run past midnight as needed. Arrays are indexed by
+ * the timetable's station ids, -1 where a station cannot be reached; arrivals are minutes
+ * from midnight of the departure day.
+ */
+public final class Isochrone {
+
+    private final CompiledTimetable timetable;
+    private final int source;
+    private final long departure;
+    private final String criteria;
+    private final long[] arrival;
+    private final long[] cost;
+    private final int[] hops;
+
+    private Isochrone(CompiledTimetable timetable, int source, long departure, String criteria, long[] arrival, long[] cost, int[] hops) {
+        this.timetable = timetable;
+        this.source = source;
+        this.departure = departure;
+        this.criteria = criteria;
+        this.arrival = arrival;
+        this.cost = cost;
+        this.hops = hops;
+    }
+
+    /**
+     * One search from source, ready at departure (HH:mm); criteria is Time, Cost or Hops as
+     * in customer requests, Time when null. An unknown source reaches nothing.
+     */
+    public static Isochrone from(CompiledTimetable tt, String source, String departure, String criteria) {
+        long start = CompiledTimetable.clockMinutes(departure);
+        String c = criteria == null ? "Time" : criteria;
+        int stations = tt.stationCount();
+        long[] arrival = new long[stations];
+        long[] cost = new long[stations];
+        int[] hops = new int[stations];
+        Arrays.fill(arrival, -1);
+        Arrays.fill(cost, -1);
+        Arrays.fill(hops, -1);
+        int s = tt.stationId(source);
+        if (s >= 0) search(tt, s, start, c.toLowerCase(), arrival, cost, hops);
+        return new Isochrone(tt, s, start, c, arrival, cost, hops);
+    }
+
+    public String getCriteria() {
+        return criteria;
+    }
+
+    // station i of the arrays below
+    public List<String> getStations() {
+        List<String> names = new ArrayList<>(timetable.stationCount());
+        for (int i = 0; i < timetable.stationCount(); i++) names.add(timetable.stationName(i));
+        return names;
+    }
+
+    public long[] getArrivals() {
+        return arrival.clone();
+    }
+
+    public long[] getCosts() {
+        return cost.clone();
+    }
+
+    public int[] getHops() {
+        return hops.clone();
+    }
+
+    /** Minutes from the departure time to arriving at the station, -1 when it cannot be reached. */
+    public long getTravelTime(String station) {
+        int s = timetable.stationId(station);
+        return s < 0 || arrival[s] < 0 ? -1 : arrival[s] - departure;
+    }
+
+    /** Stations other than the source reached within the given minutes of the departure time (exact for Time). */
+    public List<String> reachableWithin(long minutes) {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < arrival.length; i++) {
+            if (i != source && arrival[i] >= 0 && arrival[i] - departure <= minutes) out.add(timetable.stationName(i));
+        }
+        return out;
+    }
+
+    /** Stations other than the source whose journey costs at most the budget (exact for Cost). */
+    public List<String> reachableForCost(long budget) {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < cost.length; i++) {
+            if (i != source && hops[i] >= 0 && cost[i] <= budget) out.add(timetable.stationName(i));
+        }
+        return out;
+    }
+
+    // label-correcting Dijkstra on one (arrival, cost, hops) label per station, ordered by the
+    // criteria; a later arrival never catches an earlier departure, so the primary value of
+    // the best label at a station always extends to the best primary beyond it
+    private static void search(CompiledTimetable tt, int source, long start, String criteria, long[] arrival, long[] cost, int[] hops) {
+        int order = "cost".equals(criteria) ? 1 : "hops".equals(criteria) ? 2 : 0;
+        int stations = tt.stationCount();
+        PriorityQueue<long[]> queue = new PriorityQueue<>(Isochrone::compare);
+        arrival[source] = start;
+        cost[source] = 0;
+        hops[source] = 0;
+        queue.add(key(order, start, 0, 0, source));
+        long pushes = 1;
+        long expansions = 0;
+        long prunes = 0;
+        while (!queue.isEmpty()) {
+            long[] top = queue.poll();
+            int u = (int) top[3];
+            if (!Arrays.equals(top, key(order, arrival[u], cost[u], hops[u], u))) continue;
+            // fewest-legs labels never repeat a station; this also stops negative fare cycles
+            if (hops[u] + 1 >= stations) continue;
+            expansions++;
+            for (int p = tt.outOffset[u]; p < tt.outOffset[u + 1]; p++) {
+                int leg = tt.outLegs[p];
+                int v = tt.legDestination[leg];
+                long a = CompiledTimetable.nextDeparture(tt.legDeparture[leg], arrival[u]) + tt.legArrival[leg] - tt.legDeparture[leg];
+                long[] candidate = key(order, a, cost[u] + tt.legCost[leg], hops[u] + 1, v);
+                if (hops[v] >= 0 && compare(candidate, key(order, arrival[v], cost[v], hops[v], v)) >= 0) {
+                    prunes++;
+                    continue;
+                }
+                arrival[v] = a;
+                cost[v] = cost[u] + tt.legCost[leg];
+                hops[v] = hops[u] + 1;
+                queue.add(candidate);
+                pushes++;
+            }
+        }
+        SearchCounters.current().add(pushes, expansions, prunes, 0);
+    }
+
+    private static long[] key(int order, long arrival, long cost, int hops, int station) {
+        switch (order) {
+            case 1:
+                return new long[] { cost, arrival, hops, station };
+            case 2:
+                return new long[] { hops, arrival, cost, station };
+            default:
+                return new long[] { arrival, cost, hops, station };
+        }
+    }
+
+    private static int compare(long[] a, long[] b) {
+        for (int k = 0; k < 3; k++) {
+            int c = Long.compare(a[k], b[k]);
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+}
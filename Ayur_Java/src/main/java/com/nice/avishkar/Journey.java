@@ -0,0 +1,64 @@
+package com.nice.avishkar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+final class Journey {
+    final int[] legs;
+    final long departure;
+    final long arrival;
+    final long cost;
+    final int hops;
+    // other itineraries for the same request, best first; only set on answers
+    final List<Journey> alternatives;
+    // how much better than this the optimum could still be: 0 when proven optimal,
+    // UNKNOWN_GAP when the search cannot say
+    final long gap;
+
+    static final long UNKNOWN_GAP = -1;
+
+    Journey(int[] legs, long departure, long arrival, long cost) {
+        this(legs, departure, arrival, cost, Collections.emptyList(), 0);
+    }
+
+    private Journey(int[] legs, long departure, long arrival, long cost, List<Journey> alternatives, long gap) {
+        this.legs = legs;
+        this.departure = departure;
+        this.arrival = arrival;
+        this.cost = cost;
+        this.hops = legs.length;
+        this.alternatives = alternatives;
+        this.gap = gap;
+    }
+
+    Journey withAlternatives(List<Journey> alternatives) {
+        return new Journey(legs, departure, arrival, cost, Collections.unmodifiableList(alternatives), gap);
+    }
+
+    Journey withGap(long gap) {
+        return new Journey(legs, departure, arrival, cost, alternatives, gap);
+    }
+
+    long duration() {
+        return arrival - departure;
+    }
+
+    long primaryValue(String criteria) {
+        String c = criteria == null ? "time" : criteria.toLowerCase();
+        switch (c) {
+            case "cost":
+                return cost;
+            case "hops":
+                return hops;
+            default:
+                return duration();
+        }
+    }
+
+    List<Route> toRoutes(CompiledTimetable timetable) {
+        List<Route> routes = new ArrayList<>(legs.length);
+        for (int leg : legs) routes.add(timetable.route(leg));
+        return routes;
+    }
+}
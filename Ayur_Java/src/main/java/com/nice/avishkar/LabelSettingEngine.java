@@ -0,0 +1,309 @@
+package com.nice.avishkar;
+
+import java.util.Arrays;
+
+// The original best-first label-setting search, bounded by MAX_HOPS and MAX_EXPANSIONS.
+// Labels live in a per-thread arena of primitive columns and the queue is a heap of
+// label ids that sifts exactly like java.util.PriorityQueue, so results are unchanged
+// while a query in steady state allocates nothing but its Journey. The caps mean nothing it
+// returns is proven optimal; requests with a SearchBudget go to AnytimeEngine instead.
+final class LabelSettingEngine {
+
+    private static final int MAX_HOPS = 4;
+    private static final int MAX_EXPANSIONS = 1000;
+
+    private static final int TIME = 0;
+    private static final int COST = 1;
+    private static final int HOPS = 2;
+
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+
+    private LabelSettingEngine() {
+    }
+
+    static Journey search(CompiledTimetable tt, int source, int target, String criteria) {
+        if (source < 0 || tt.outDegree(source) == 0) return null;
+
+        boolean timeCriteria = "time".equalsIgnoreCase(criteria);
+        Workspace ws = WORKSPACE.get();
+        ws.reset(tt.legSlots(), order(criteria));
+
+        int pushes = 0;
+        int prunes = 0;
+        int cutoffs = 0;
+        for (int p = tt.outOffset[source]; p < tt.outOffset[source + 1]; p++) {
+            int leg = tt.outLegs[p];
+            ws.push(ws.newLabel(leg, tt.legDeparture[leg], tt.legArrival[leg], tt.legCost[leg], 1, -1));
+            pushes++;
+        }
+
+        int best = -1;
+        int expansions = 0;
+        while (ws.queueSize > 0) {
+            int cur = ws.poll();
+
+            if (++expansions > MAX_EXPANSIONS) {
+                cutoffs++;
+                break;
+            }
+            if (best >= 0 && ws.compare(cur, best) >= 0) break;
+            if (ws.hops[cur] > MAX_HOPS) continue;
+
+            int at = tt.legDestination[ws.leg[cur]];
+            if (at == target) {
+                if (best < 0 || ws.compare(cur, best) < 0) best = cur;
+                continue;
+            }
+
+            long ready = ws.arrival[cur];
+            int begin = tt.outOffset[at];
+            int degree = tt.outOffset[at + 1] - begin;
+            int first = tt.firstDepartureAtOrAfter(at, ready % 1440);
+            for (int step = 0; step < degree; step++) {
+                int p = first + step;
+                if (p >= begin + degree) p -= degree;
+                int next = tt.outLegs[p];
+                if (ws.onPath(cur, next)) continue;
+
+                long dep = CompiledTimetable.nextDeparture(tt.legDeparture[next], ready);
+                // legs are walked in wait order, so once departing alone is slower than best nothing later helps
+                if (timeCriteria && best >= 0 && dep - ws.departure[cur] > ws.arrival[best] - ws.departure[best]) break;
+
+                long arr = dep + tt.legArrival[next] - tt.legDeparture[next];
+                long paid = ws.cost[cur] + tt.legCost[next];
+                int legs = ws.hops[cur] + 1;
+
+                long sig = (((long) next) << 48) ^ (arr & 0x0000FFFFFFFFFFFFL) ^ (((long) legs) << 40);
+                if (ws.visited(sig) || !ws.offerSignature(next, arr, paid, legs)) {
+                    prunes++;
+                    continue;
+                }
+
+                ws.markVisited(sig);
+                ws.push(ws.newLabel(next, ws.departure[cur], arr, paid, legs, cur));
+                pushes++;
+            }
+        }
+        SearchCounters.current().add(pushes, Math.min(expansions, MAX_EXPANSIONS), prunes, cutoffs);
+
+        if (best < 0) return null;
+        int[] legs = new int[ws.hops[best]];
+        for (int l = best, k = legs.length; l >= 0; l = ws.parent[l]) legs[--k] = ws.leg[l];
+        return new Journey(legs, ws.departure[best], ws.arrival[best], ws.cost[best]);
+    }
+
+    private static int order(String criteria) {
+        String c = criteria == null ? "time" : criteria.toLowerCase();
+        switch (c) {
+            case "cost":
+                return COST;
+            case "hops":
+                return HOPS;
+            default:
+                return TIME;
+        }
+    }
+
+    private static final class Workspace {
+        int criteria;
+
+        // label arena
+        int labels;
+        int[] leg = new int[256];
+        int[] parent = new int[256];
+        long[] departure = new long[256];
+        long[] arrival = new long[256];
+        long[] cost = new long[256];
+        int[] hops = new int[256];
+
+        // binary heap of label ids
+        int[] queue = new int[256];
+        int queueSize;
+
+        // one (arrival, cost, hops) signature per leg, valid where sigStamp == stamp
+        long[] sigArrival = new long[0];
+        long[] sigCost = new long[0];
+        int[] sigHops = new int[0];
+        int[] sigStamp = new int[0];
+        int stamp;
+
+        // open-addressed set of visited signatures, valid where visitedStamp == stamp
+        long[] visitedKey = new long[1024];
+        int[] visitedStamp = new int[1024];
+        int visitedSize;
+
+        void reset(int legs, int criteria) {
+            this.criteria = criteria;
+            labels = 0;
+            queueSize = 0;
+            visitedSize = 0;
+            if (sigArrival.length < legs) {
+                sigArrival = new long[legs];
+                sigCost = new long[legs];
+                sigHops = new int[legs];
+                sigStamp = new int[legs];
+            }
+            if (++stamp == 0) {
+                Arrays.fill(sigStamp, 0);
+                Arrays.fill(visitedStamp, 0);
+                stamp = 1;
+            }
+        }
+
+        int newLabel(int via, long d0, long arr, long paid, int legs, int from) {
+            if (labels == leg.length) {
+                int n = labels * 2;
+                leg = Arrays.copyOf(leg, n);
+                parent = Arrays.copyOf(parent, n);
+                departure = Arrays.copyOf(departure, n);
+                arrival = Arrays.copyOf(arrival, n);
+                cost = Arrays.copyOf(cost, n);
+                hops = Arrays.copyOf(hops, n);
+            }
+            int id = labels++;
+            leg[id] = via;
+            parent[id] = from;
+            departure[id] = d0;
+            arrival[id] = arr;
+            cost[id] = paid;
+            hops[id] = legs;
+            return id;
+        }
+
+        // paths are at most MAX_HOPS + 1 legs, so walking the parent chain beats any set
+        boolean onPath(int label, int via) {
+            for (int l = label; l >= 0; l = parent[l]) {
+                if (leg[l] == via) return true;
+            }
+            return false;
+        }
+
+        int compare(int a, int b) {
+            long da = arrival[a] - departure[a];
+            long db = arrival[b] - departure[b];
+            switch (criteria) {
+                case COST:
+                    if (cost[a] != cost[b]) return Long.compare(cost[a], cost[b]);
+                    if (da != db) return Long.compare(da, db);
+                    return Integer.compare(hops[a], hops[b]);
+                case HOPS:
+                    if (hops[a] != hops[b]) return Integer.compare(hops[a], hops[b]);
+                    if (da != db) return Long.compare(da, db);
+                    return Long.compare(cost[a], cost[b]);
+                default:
+                    if (da != db) return Long.compare(da, db);
+                    if (cost[a] != cost[b]) return Long.compare(cost[a], cost[b]);
+                    return Integer.compare(hops[a], hops[b]);
+            }
+        }
+
+        // keeps the better of the stored and the new signature; false when the new one is dominated
+        boolean offerSignature(int via, long arr, long paid, int legs) {
+            if (sigStamp[via] == stamp) {
+                long a = sigArrival[via];
+                long c = sigCost[via];
+                int h = sigHops[via];
+                if (a <= arr && c <= paid && h <= legs) return false;
+                if (compareSignatures(arr, paid, legs, a, c, h) > 0) return true;
+            }
+            sigStamp[via] = stamp;
+            sigArrival[via] = arr;
+            sigCost[via] = paid;
+            sigHops[via] = legs;
+            return true;
+        }
+
+        private int compareSignatures(long a0, long c0, int h0, long a1, long c1, int h1) {
+            switch (criteria) {
+                case COST:
+                    if (c0 != c1) return Long.compare(c0, c1);
+                    if (a0 != a1) return Long.compare(a0, a1);
+                    return Integer.compare(h0, h1);
+                case HOPS:
+                    if (h0 != h1) return Integer.compare(h0, h1);
+                    if (a0 != a1) return Long.compare(a0, a1);
+                    return Long.compare(c0, c1);
+                default:
+                    if (a0 != a1) return Long.compare(a0, a1);
+                    if (c0 != c1) return Long.compare(c0, c1);
+                    return Integer.compare(h0, h1);
+            }
+        }
+
+        boolean visited(long sig) {
+            int mask = visitedKey.length - 1;
+            for (int i = mix(sig) & mask; visitedStamp[i] == stamp; i = (i + 1) & mask) {
+                if (visitedKey[i] == sig) return true;
+            }
+            return false;
+        }
+
+        void markVisited(long sig) {
+            if (2 * (visitedSize + 1) > visitedKey.length) growVisited();
+            int mask = visitedKey.length - 1;
+            int i = mix(sig) & mask;
+            while (visitedStamp[i] == stamp) {
+                if (visitedKey[i] == sig) return;
+                i = (i + 1) & mask;
+            }
+            visitedKey[i] = sig;
+            visitedStamp[i] = stamp;
+            visitedSize++;
+        }
+
+        private void growVisited() {
+            long[] keys = visitedKey;
+            int[] stamps = visitedStamp;
+            visitedKey = new long[keys.length * 2];
+            visitedStamp = new int[keys.length * 2];
+            int mask = visitedKey.length - 1;
+            for (int j = 0; j < keys.length; j++) {
+                if (stamps[j] != stamp) continue;
+                int i = mix(keys[j]) & mask;
+                while (visitedStamp[i] == stamp) i = (i + 1) & mask;
+                visitedKey[i] = keys[j];
+                visitedStamp[i] = stamp;
+            }
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        // siftUp / siftDown mirror java.util.PriorityQueue so equal labels come out in the same order
+        void push(int label) {
+            if (queueSize == queue.length) queue = Arrays.copyOf(queue, queueSize * 2);
+            int k = queueSize++;
+            while (k > 0) {
+                int p = (k - 1) >>> 1;
+                int e = queue[p];
+                if (compare(label, e) >= 0) break;
+                queue[k] = e;
+                k = p;
+            }
+            queue[k] = label;
+        }
+
+        int poll() {
+            int result = queue[0];
+            int n = --queueSize;
+            if (n > 0) {
+                int x = queue[n];
+                int k = 0;
+                int half = n >>> 1;
+                while (k < half) {
+                    int child = 2 * k + 1;
+                    int c = queue[child];
+                    int right = child + 1;
+                    if (right < n && compare(c, queue[right]) > 0) c = queue[child = right];
+                    if (compare(x, c) <= 0) break;
+                    queue[k] = c;
+                    k = child;
+                }
+                queue[k] = x;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.nice.avishkar;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// The current version of a timetable that changes during the day. Take current() once
+// per piece of work and keep using that snapshot; updates build the next version aside
+// and publish it with one volatile write, so work in flight never sees half an update
+// and anything started afterwards sees all of it.
+public final class LiveTimetable {
+
+    private volatile CompiledTimetable current;
+
+    public LiveTimetable(CompiledTimetable initial) {
+        this.current = java.util.Objects.requireNonNull(initial);
+    }
+
+    public static LiveTimetable load(Path transportSchedulePath) throws IOException {
+        return new LiveTimetable(CompiledTimetable.compile(transportSchedulePath));
+    }
+
+    public CompiledTimetable current() {
+        return current;
+    }
+
+    // writers are serialized so no update is lost; readers never wait
+    public synchronized CompiledTimetable apply(TimetableUpdate update) {
+        CompiledTimetable next = current.apply(update);
+        current = next;
+        return next;
+    }
+
+    public synchronized CompiledTimetable reload(Path transportSchedulePath) throws IOException {
+        CompiledTimetable next = CompiledTimetable.compile(transportSchedulePath);
+        current = next;
+        return next;
+    }
+}
@@ -0,0 +1,164 @@
+package com.nice.avishkar;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.stream.IntStream;
+
+// Per-station lower bounds on what is still needed to reach one target, from reverse
+// Dijkstra runs over the station graph that ignore departure times: fewest riding minutes,
+// lowest fare and fewest legs. Waiting only ever adds, so every bound is admissible and
+// pruning on g + h against the target's best keeps the exact engines exact. The same
+// bounds from one source (forward runs) measure what any journey has spent on arrival.
+final class LowerBounds {
+
+    // bounds for this many targets are kept per timetable unless all were precomputed
+    private static final int CACHED_TARGETS = 4096;
+
+    private static final Map<CompiledTimetable, Cache> CACHES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    final long[] duration;
+    final long[] cost;
+    // -1 where the target cannot be reached
+    final int[] hops;
+    // false when negative fares leave cost without a usable bound
+    final boolean exactFares;
+
+    private LowerBounds(long[] duration, long[] cost, int[] hops, boolean exactFares) {
+        this.duration = duration;
+        this.cost = cost;
+        this.hops = hops;
+        this.exactFares = exactFares;
+    }
+
+    static LowerBounds forTarget(CompiledTimetable tt, int target) {
+        Cache cache = CACHES.computeIfAbsent(tt, k -> new Cache(CACHED_TARGETS));
+        LowerBounds b = cache.get(target);
+        if (b == null) {
+            b = compute(tt, target, false);
+            cache.put(target, b);
+        }
+        return b;
+    }
+
+    // bounds from source to every station; cached beside the targets under ~source
+    static LowerBounds fromSource(CompiledTimetable tt, int source) {
+        Cache cache = CACHES.computeIfAbsent(tt, k -> new Cache(CACHED_TARGETS));
+        LowerBounds b = cache.get(~source);
+        if (b == null) {
+            b = compute(tt, source, true);
+            cache.put(~source, b);
+        }
+        return b;
+    }
+
+
+    // bounds to every station, computed in parallel and kept for the timetable's lifetime
+    static void precomputeAll(CompiledTimetable tt) {
+        int stations = tt.stationCount();
+        Cache cache = new Cache(Math.max(CACHED_TARGETS, stations) + CACHED_TARGETS);
+        LowerBounds[] all = new LowerBounds[stations];
+        IntStream.range(0, stations).parallel().forEach(t -> all[t] = compute(tt, t, false));
+        for (int t = 0; t < stations; t++) cache.put(t, all[t]);
+        CACHES.put(tt, cache);
+    }
+
+    static LowerBounds compute(CompiledTimetable tt, int station, boolean forward) {
+        int stations = tt.stationCount();
+        boolean negativeFares = false;
+        for (int leg : tt.connections) {
+            if (tt.legCost[leg] < 0) negativeFares = true;
+        }
+        long[] duration = dijkstra(tt, station, forward, false);
+        long[] cost;
+        if (negativeFares) {
+            // no admissible fare bound exists, so fares never prune
+            cost = new long[stations];
+            Arrays.fill(cost, Long.MIN_VALUE / 4);
+        } else {
+            cost = dijkstra(tt, station, forward, true);
+        }
+        return new LowerBounds(duration, cost, forward ? tt.distancesFrom(station) : tt.distancesTo(station), !negativeFares);
+    }
+
+    static long[] dijkstra(CompiledTimetable tt, int origin, boolean forward, boolean fares) {
+        int stations = tt.stationCount();
+        long[] dist = new long[stations];
+        Arrays.fill(dist, Long.MAX_VALUE);
+        // heap entries pack (distance, station); distances past int range are clamped, which only weakens the bound
+        long[] heap = new long[16];
+        int size = 0;
+        dist[origin] = 0;
+        heap[size++] = origin;
+        while (size > 0) {
+            long top = heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, size);
+            int v = (int) (top & 0xFFFFFFFFL);
+            long d = top >>> 32;
+            if (d > dist[v]) continue;
+            int from = forward ? tt.outOffset[v] : tt.inOffset[v];
+            int to = forward ? tt.outOffset[v + 1] : tt.inOffset[v + 1];
+            for (int p = from; p < to; p++) {
+                int leg = forward ? tt.outLegs[p] : tt.inLegs[p];
+                int u = forward ? tt.legDestination[leg] : tt.legSource[leg];
+                long w = fares ? tt.legCost[leg] : tt.legArrival[leg] - tt.legDeparture[leg];
+                long nd = Math.min(Integer.MAX_VALUE, d + w);
+                if (nd >= dist[u]) continue;
+                dist[u] = nd;
+                if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+                heap[size] = (nd << 32) | u;
+                siftUp(heap, size++);
+            }
+        }
+        return dist;
+    }
+
+    static void siftUp(long[] heap, int k) {
+        long x = heap[k];
+        while (k > 0) {
+            int p = (k - 1) >>> 1;
+            if (heap[p] <= x) break;
+            heap[k] = heap[p];
+            k = p;
+        }
+        heap[k] = x;
+    }
+
+    static void siftDown(long[] heap, int size) {
+        if (size == 0) return;
+        long x = heap[0];
+        int k = 0;
+        while (2 * k + 1 < size) {
+            int c = 2 * k + 1;
+            if (c + 1 < size && heap[c + 1] < heap[c]) c++;
+            if (x <= heap[c]) break;
+            heap[k] = heap[c];
+            k = c;
+        }
+        heap[k] = x;
+    }
+
+    private static final class Cache {
+        private final LinkedHashMap<Integer, LowerBounds> entries;
+
+        Cache(int capacity) {
+            entries = new LinkedHashMap<Integer, LowerBounds>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, LowerBounds> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized LowerBounds get(int target) {
+            return entries.get(target);
+        }
+
+        synchronized void put(int target, LowerBounds bounds) {
+            entries.put(target, bounds);
+        }
+    }
+}
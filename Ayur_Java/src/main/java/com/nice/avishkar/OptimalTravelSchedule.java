@@ -1,5 +1,6 @@
 package com.nice.avishkar;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class OptimalTravelSchedule {
@@ -11,6 +12,14 @@ public class OptimalTravelSchedule {
 
     String summary;
 
+    List<OptimalTravelSchedule> alternatives = new ArrayList<>();
+
+    // whether the search proved the value optimal, and how much lower the optimum could be
+    // at most (-1 when the search cannot say)
+    boolean optimal;
+
+    long gap = -1;
+
     public OptimalTravelSchedule(List<Route> routes, String criteria, long value, String summary) {
         this.routes = routes;
         this.criteria = criteria;
@@ -50,4 +59,30 @@ public class OptimalTravelSchedule {
     public void setSummary(String summary) {
         this.summary = summary;
     }
+
+    // other itineraries when the request asked for them, best first; possibly fewer than
+    // asked, as the search for them is capped
+    public List<OptimalTravelSchedule> getAlternatives() {
+        return alternatives;
+    }
+
+    public void setAlternatives(List<OptimalTravelSchedule> alternatives) {
+        this.alternatives = alternatives;
+    }
+
+    public boolean isOptimal() {
+        return optimal;
+    }
+
+    public void setOptimal(boolean optimal) {
+        this.optimal = optimal;
+    }
+
+    public long getGap() {
+        return gap;
+    }
+
+    public void setGap(long gap) {
+        this.gap = gap;
+    }
 }
@@ -0,0 +1,405 @@
+package com.nice.avishkar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// Multi-criteria label-correcting search keeping a Pareto front of (arrival, cost, hops)
+// per station. Source departures are processed latest first with fronts kept between
+// them, so a label only survives when it beats everything that left no earlier than
+// it did; the target front is then exactly the (duration, cost, hops) Pareto set.
+// frontLimit > 0 caps every station's front for memory control, at the price of
+// exactness once a front fills up. Unbounded single-target searches are goal directed:
+// a label is dropped once its LowerBounds completion is dominated at the target, and when
+// only one criteria's best is wanted, once that completion is already worse than the best.
+final class ParetoEngine {
+
+    static final int UNBOUNDED = 0;
+
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+
+    private ParetoEngine() {
+    }
+
+    static Journey best(CompiledTimetable tt, int source, int target, String criteria, int frontLimit) {
+        return best(tt, source, target, criteria, frontLimit, true);
+    }
+
+    static Journey best(CompiledTimetable tt, int source, int target, String criteria, int frontLimit, boolean goalDirected) {
+        List<Journey> front = search(tt, source, new int[] { target }, frontLimit, criteria, goalDirected).get(0);
+        if (front.isEmpty()) return null;
+        Comparator<Journey> comp = comparator(criteria);
+        Journey best = front.get(0);
+        for (Journey j : front) {
+            if (comp.compare(j, best) < 0) best = j;
+        }
+        return best;
+    }
+
+    static List<Journey> paretoSet(CompiledTimetable tt, int source, int target, int frontLimit) {
+        return search(tt, source, new int[] { target }, frontLimit, null, true).get(0);
+    }
+
+    static Journey[] bestFrom(CompiledTimetable tt, int source, int[] targets, String criteria, int frontLimit) {
+        return bestFrom(tt, source, targets, criteria, frontLimit, true);
+    }
+
+    static Journey[] bestFrom(CompiledTimetable tt, int source, int[] targets, String criteria, int frontLimit, boolean goalDirected) {
+        List<List<Journey>> fronts = search(tt, source, targets, frontLimit, criteria, goalDirected);
+        Comparator<Journey> comp = comparator(criteria);
+        Journey[] out = new Journey[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            for (Journey j : fronts.get(i)) {
+                if (out[i] == null || comp.compare(j, out[i]) < 0) out[i] = j;
+            }
+        }
+        return out;
+    }
+
+    // with several targets the fronts are shared: no target pruning, and labels reaching a
+    // target are recorded there and still extended towards the others
+    // criteria null asks for the whole Pareto set
+    private static List<List<Journey>> search(CompiledTimetable tt, int source, int[] targets, int frontLimit, String criteria, boolean goalDirected) {
+        List<List<Journey>> out = new ArrayList<>(targets.length);
+        for (int i = 0; i < targets.length; i++) out.add(new ArrayList<>());
+        if (source < 0) return out;
+        boolean single = targets.length == 1;
+        LowerBounds bounds = single && targets[0] >= 0 && goalDirected && frontLimit == UNBOUNDED ? LowerBounds.forTarget(tt, targets[0]) : null;
+        int[] toTarget = bounds != null ? bounds.hops : single && targets[0] >= 0 ? tt.distancesTo(targets[0]) : tt.distancesFrom(source);
+        boolean any = false;
+        for (int t : targets) {
+            if (t >= 0 && t != source && (single ? toTarget[source] >= 0 : toTarget[t] >= 0)) any = true;
+        }
+        if (!any) return out;
+
+        Workspace ws = WORKSPACE.get();
+        ws.reset(tt.stationCount(), targets.length);
+        for (int i = 0; i < targets.length; i++) {
+            int t = targets[i];
+            if (t >= 0 && t != source && ws.slot[t] < 0) ws.slot[t] = i;
+        }
+        ws.single = single;
+        ws.bounds = bounds;
+        ws.order = bounds != null && criteria != null ? order(criteria) : -1;
+
+        int hi = tt.outOffset[source + 1];
+        while (hi > tt.outOffset[source]) {
+            long d0 = tt.outDeparture[hi - 1];
+            int lo = hi - 1;
+            while (lo > tt.outOffset[source] && tt.outDeparture[lo - 1] == d0) lo--;
+
+            ws.frontierSize = 0;
+            for (int p = lo; p < hi; p++) {
+                int leg = tt.outLegs[p];
+                int v = tt.legDestination[leg];
+                if (toTarget[v] < 0) continue;
+                ws.offer(v, single ? toTarget[v] : 0, d0, tt.legArrival[leg], tt.legCost[leg], 1, -1, leg, frontLimit);
+            }
+            while (ws.frontierSize > 0) {
+                int[] current = ws.swapFrontier();
+                int size = ws.currentSize;
+                for (int f = 0; f < size; f++) {
+                    int label = current[f];
+                    if (ws.dead[label]) continue;
+                    ws.expansions++;
+                    int u = ws.station[label];
+                    long ready = ws.arrival[label];
+                    for (int p = tt.outOffset[u]; p < tt.outOffset[u + 1]; p++) {
+                        int leg = tt.outLegs[p];
+                        int v = tt.legDestination[leg];
+                        if (toTarget[v] < 0) continue;
+                        long dep = CompiledTimetable.nextDeparture(tt.legDeparture[leg], ready);
+                        long arr = dep + tt.legArrival[leg] - tt.legDeparture[leg];
+                        ws.offer(v, single ? toTarget[v] : 0, d0, arr, ws.cost[label] + tt.legCost[leg], ws.hops[label] + 1, label, leg, frontLimit);
+                    }
+                }
+            }
+            hi = lo;
+        }
+
+        SearchCounters.current().add(ws.pushes, ws.expansions, ws.prunes, ws.cutoffs);
+
+        for (int i = 0; i < targets.length; i++) {
+            int t = targets[i];
+            if (t < 0 || ws.slot[t] < 0) continue;
+            int slot = ws.slot[t];
+            if (slot != i) {
+                out.set(i, new ArrayList<>(out.get(slot)));
+                continue;
+            }
+            List<Journey> front = out.get(i);
+            for (int r = 0; r < ws.resultSize[i]; r++) front.add(ws.journey(ws.results[i][r]));
+            front.sort(comparator("time"));
+        }
+        return out;
+    }
+
+    private static int order(String criteria) {
+        switch (criteria.toLowerCase()) {
+            case "cost":
+                return 1;
+            case "hops":
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    static Comparator<Journey> comparator(String criteria) {
+        String c = criteria == null ? "time" : criteria.toLowerCase();
+        switch (c) {
+            case "cost":
+                return (a, b) -> {
+                    if (a.cost != b.cost) return Long.compare(a.cost, b.cost);
+                    if (a.duration() != b.duration()) return Long.compare(a.duration(), b.duration());
+                    return Integer.compare(a.hops, b.hops);
+                };
+            case "hops":
+                return (a, b) -> {
+                    if (a.hops != b.hops) return Integer.compare(a.hops, b.hops);
+                    if (a.duration() != b.duration()) return Long.compare(a.duration(), b.duration());
+                    return Long.compare(a.cost, b.cost);
+                };
+            default:
+                return (a, b) -> {
+                    if (a.duration() != b.duration()) return Long.compare(a.duration(), b.duration());
+                    if (a.cost != b.cost) return Long.compare(a.cost, b.cost);
+                    return Integer.compare(a.hops, b.hops);
+                };
+        }
+    }
+
+    private static final class Workspace {
+        // label arena
+        int labels;
+        int[] station = new int[256];
+        long[] departure = new long[256];
+        long[] arrival = new long[256];
+        long[] cost = new long[256];
+        int[] hops = new int[256];
+        int[] parent = new int[256];
+        int[] leg = new int[256];
+        boolean[] dead = new boolean[256];
+
+        // per-station fronts of live label ids
+        int[][] front = new int[0][];
+        int[] frontSize = new int[0];
+
+        // per-target fronts, compared on duration instead of arrival
+        int[] slot = new int[0];
+        int[][] results = new int[0][];
+        int[] resultSize = new int[0];
+        boolean single;
+
+        // goal direction, single target only: bounds to the target, and the criteria whose
+        // best is wanted (-1 for the whole set) with the best completed journey so far
+        LowerBounds bounds;
+        int order;
+        boolean hasBest;
+        long bestDuration;
+        long bestCost;
+        int bestHops;
+
+        int[] frontier = new int[64];
+        int frontierSize;
+        int[] current = new int[64];
+        int currentSize;
+
+        long pushes;
+        long expansions;
+        long prunes;
+        long cutoffs;
+
+        void reset(int stations, int targets) {
+            labels = 0;
+            frontierSize = 0;
+            hasBest = false;
+            pushes = 0;
+            expansions = 0;
+            prunes = 0;
+            cutoffs = 0;
+            if (front.length < stations) {
+                front = new int[stations][];
+                frontSize = new int[stations];
+                slot = new int[stations];
+                for (int s = 0; s < stations; s++) front[s] = new int[8];
+            }
+            Arrays.fill(frontSize, 0, stations, 0);
+            Arrays.fill(slot, 0, stations, -1);
+            if (results.length < targets) {
+                results = new int[targets][];
+                resultSize = new int[targets];
+                for (int t = 0; t < targets; t++) results[t] = new int[8];
+            }
+            Arrays.fill(resultSize, 0, targets, 0);
+        }
+
+        int[] swapFrontier() {
+            int[] t = current;
+            current = frontier;
+            currentSize = frontierSize;
+            frontier = t;
+            frontierSize = 0;
+            return current;
+        }
+
+        void offer(int v, int legsLeft, long d0, long arr, long paid, int legs, int from, int via, int frontLimit) {
+            long duration = arr - d0;
+            if (single) {
+                int[] r0 = results[0];
+                int minLegs = legs + legsLeft;
+                long minDuration = duration;
+                long minPaid = paid;
+                if (bounds != null) {
+                    minDuration += bounds.duration[v];
+                    minPaid += bounds.cost[v];
+                    if (order >= 0 && hasBest && worseThanBest(minDuration, minPaid, minLegs)) {
+                        prunes++;
+                        return;
+                    }
+                }
+                for (int r = 0; r < resultSize[0]; r++) {
+                    int e = r0[r];
+                    if (arrival[e] - departure[e] <= minDuration && cost[e] <= minPaid && hops[e] <= minLegs) {
+                        prunes++;
+                        return;
+                    }
+                }
+            }
+
+            int target = slot[v];
+            int label = -1;
+            if (target >= 0) {
+                label = record(target, v, d0, arr, paid, legs, from, via);
+                if (single) return;
+            }
+            if (dominated(v, arr, paid, legs)) {
+                prunes++;
+                return;
+            }
+            if (label < 0) label = newLabel(v, d0, arr, paid, legs, from, via);
+            if (!enterFront(v, label, frontLimit)) {
+                cutoffs++;
+                return;
+            }
+            if (frontierSize == frontier.length) frontier = Arrays.copyOf(frontier, frontierSize * 2);
+            frontier[frontierSize++] = label;
+            pushes++;
+        }
+
+        // adds the label to a target front unless dominated there; returns its id or -1
+        int record(int target, int v, long d0, long arr, long paid, int legs, int from, int via) {
+            long duration = arr - d0;
+            int[] rs = results[target];
+            int n = resultSize[target];
+            for (int r = 0; r < n; r++) {
+                int e = rs[r];
+                if (arrival[e] - departure[e] <= duration && cost[e] <= paid && hops[e] <= legs) return -1;
+            }
+            int keep = 0;
+            for (int r = 0; r < n; r++) {
+                int e = rs[r];
+                if (duration <= arrival[e] - departure[e] && paid <= cost[e] && legs <= hops[e]) continue;
+                rs[keep++] = e;
+            }
+            int label = newLabel(v, d0, arr, paid, legs, from, via);
+            if (keep == rs.length) rs = results[target] = Arrays.copyOf(rs, keep * 2);
+            rs[keep++] = label;
+            resultSize[target] = keep;
+            if (order >= 0 && (!hasBest || worseThanBest(bestDuration, bestCost, bestHops, duration, paid, legs))) {
+                hasBest = true;
+                bestDuration = duration;
+                bestCost = paid;
+                bestHops = legs;
+            }
+            return label;
+        }
+
+        // strictly behind the best so far in the criteria's order, so no completion can win or tie
+        boolean worseThanBest(long duration, long paid, int legs) {
+            return worseThanBest(duration, paid, legs, bestDuration, bestCost, bestHops);
+        }
+
+        private boolean worseThanBest(long d0, long c0, int h0, long d1, long c1, int h1) {
+            switch (order) {
+                case 1:
+                    if (c0 != c1) return c0 > c1;
+                    if (d0 != d1) return d0 > d1;
+                    return h0 > h1;
+                case 2:
+                    if (h0 != h1) return h0 > h1;
+                    if (d0 != d1) return d0 > d1;
+                    return c0 > c1;
+                default:
+                    if (d0 != d1) return d0 > d1;
+                    if (c0 != c1) return c0 > c1;
+                    return h0 > h1;
+            }
+        }
+
+        boolean dominated(int v, long arr, long paid, int legs) {
+            int[] f = front[v];
+            int size = frontSize[v];
+            for (int i = 0; i < size; i++) {
+                int e = f[i];
+                if (arrival[e] <= arr && cost[e] <= paid && hops[e] <= legs) return true;
+            }
+            return false;
+        }
+
+        // drops what the new label dominates; false when the front is full
+        boolean enterFront(int v, int label, int frontLimit) {
+            long arr = arrival[label];
+            long paid = cost[label];
+            int legs = hops[label];
+            int[] f = front[v];
+            int size = frontSize[v];
+            int keep = 0;
+            for (int i = 0; i < size; i++) {
+                int e = f[i];
+                if (arr <= arrival[e] && paid <= cost[e] && legs <= hops[e]) {
+                    dead[e] = true;
+                    continue;
+                }
+                f[keep++] = e;
+            }
+            frontSize[v] = keep;
+            if (frontLimit > 0 && keep >= frontLimit) return false;
+            if (keep == f.length) f = front[v] = Arrays.copyOf(f, keep * 2);
+            f[keep++] = label;
+            frontSize[v] = keep;
+            return true;
+        }
+
+        int newLabel(int v, long d0, long arr, long paid, int legs, int from, int via) {
+            if (labels == station.length) {
+                int n = labels * 2;
+                station = Arrays.copyOf(station, n);
+                departure = Arrays.copyOf(departure, n);
+                arrival = Arrays.copyOf(arrival, n);
+                cost = Arrays.copyOf(cost, n);
+                hops = Arrays.copyOf(hops, n);
+                parent = Arrays.copyOf(parent, n);
+                leg = Arrays.copyOf(leg, n);
+                dead = Arrays.copyOf(dead, n);
+            }
+            int id = labels++;
+            station[id] = v;
+            departure[id] = d0;
+            arrival[id] = arr;
+            cost[id] = paid;
+            hops[id] = legs;
+            parent[id] = from;
+            leg[id] = via;
+            dead[id] = false;
+            return id;
+        }
+
+        Journey journey(int label) {
+            int[] legs = new int[hops[label]];
+            for (int l = label, k = legs.length; l >= 0; l = parent[l]) legs[--k] = leg[l];
+            return new Journey(legs, departure[label], arrival[label], cost[label]);
+        }
+    }
+}
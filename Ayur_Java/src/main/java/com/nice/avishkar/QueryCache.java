@@ -0,0 +1,164 @@
+package com.nice.avishkar;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// Bounded LRU cache of solved journeys keyed on interned (source, destination, criteria,
+// engine). Entries belong to the timetable instance they were computed on and are only
+// served for that instance, so consecutive versions of a LiveTimetable queried side by side
+// each keep their own. Timetables are held weakly, as in LowerBounds: once one is no longer
+// used anywhere else it can be collected, and its entries go with it. When the cache is full,
+// entries of the least recently used timetable go first.
+public final class QueryCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    // cached "no route" answers
+    static final Journey NO_ROUTE = new Journey(new int[0], 0, 0, 0);
+
+    // rough per-entry footprint: map node, boxed key, Journey and its legs array header
+    private static final long ENTRY_OVERHEAD_BYTES = 128;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    // compiled timetables do not override equals, so this is by instance
+    private final WeakHashMap<CompiledTimetable, Generation> timetables = new WeakHashMap<>();
+    private final List<Generation> generations = new ArrayList<>();
+    private final ReferenceQueue<CompiledTimetable> collected = new ReferenceQueue<>();
+    private long clock;
+    private int size;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public QueryCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    public QueryCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    static long key(int source, int destination, String criteria, SearchEngine engine) {
+        String c = criteria == null ? "time" : criteria.toLowerCase();
+        int code;
+        switch (c) {
+            case "cost":
+                code = 1;
+                break;
+            case "hops":
+                code = 2;
+                break;
+            default:
+                code = 0;
+        }
+        return ((long) source << 40) | ((long) destination << 16) | ((long) code << 8) | engine.ordinal();
+    }
+
+    synchronized Journey get(CompiledTimetable tt, long key) {
+        expunge();
+        Generation g = timetables.get(tt);
+        if (g != null) g.used = ++clock;
+        Journey j = g == null ? null : g.entries.get(key);
+        if (j == null) misses++;
+        else hits++;
+        return j;
+    }
+
+    synchronized void put(CompiledTimetable tt, long key, Journey journey) {
+        expunge();
+        Generation g = timetables.get(tt);
+        if (g == null) {
+            g = new Generation(tt, collected);
+            timetables.put(tt, g);
+            generations.add(g);
+        }
+        g.used = ++clock;
+        Journey value = journey == null ? NO_ROUTE : journey;
+        Journey old = g.entries.put(key, value);
+        if (old != null) bytes -= footprint(old);
+        else size++;
+        bytes += footprint(value);
+
+        while ((size > maxEntries || bytes > maxBytes) && !generations.isEmpty()) {
+            Generation victim = generations.get(0);
+            for (Generation other : generations) {
+                if (other.used < victim.used) victim = other;
+            }
+            Iterator<Map.Entry<Long, Journey>> it = victim.entries.entrySet().iterator();
+            while ((size > maxEntries || bytes > maxBytes) && it.hasNext()) {
+                bytes -= footprint(it.next().getValue());
+                it.remove();
+                size--;
+                evictions++;
+            }
+            if (victim.entries.isEmpty()) {
+                generations.remove(victim);
+                CompiledTimetable owner = victim.get();
+                if (owner != null) timetables.remove(owner);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        timetables.clear();
+        generations.clear();
+        size = 0;
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getEstimatedBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // entries of collected timetables can never be asked for again
+    private void expunge() {
+        for (Reference<? extends CompiledTimetable> r; (r = collected.poll()) != null; ) {
+            Generation g = (Generation) r;
+            if (!generations.remove(g)) continue;
+            for (Journey j : g.entries.values()) bytes -= footprint(j);
+            size -= g.entries.size();
+            evictions += g.entries.size();
+        }
+    }
+
+    private static long footprint(Journey j) {
+        return ENTRY_OVERHEAD_BYTES + 4L * j.legs.length;
+    }
+
+    // one timetable's entries; refers to the timetable only weakly
+    private static final class Generation extends WeakReference<CompiledTimetable> {
+        final LinkedHashMap<Long, Journey> entries = new LinkedHashMap<>(16, 0.75f, true);
+        long used;
+
+        Generation(CompiledTimetable tt, ReferenceQueue<CompiledTimetable> queue) {
+            super(tt, queue);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.nice.avishkar;
+
+import java.util.Arrays;
+
+// Round-based (RAPTOR-style) search for the Hops criterion. Round k holds journeys using
+// exactly k legs. Since every leg can be caught by waiting, the fewest legs to a station is
+// its plain graph distance from the source, and a fewest-legs route passes stations in
+// strictly increasing distance, so round k only ever touches stations at distance k.
+// Each station keeps a bag of (arrival, cost) labels that do not dominate each other
+// (McRAPTOR-style), so a later but cheaper arrival that still makes the same onward leg
+// survives. Source departures are processed latest first and bags are kept between them
+// (range RAPTOR): a label from an earlier departure only survives where nothing that left
+// later arrives as early for as little, which yields the fewest-legs journey of shortest
+// duration and then lowest cost.
+final class RoundBasedEngine {
+
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+
+    private RoundBasedEngine() {
+    }
+
+    static Journey fewestHops(CompiledTimetable tt, int source, int target) {
+        return fewestHopsFrom(tt, source, new int[] { target })[0];
+    }
+
+    // one pass settles every target, so batches share one search per source
+    static Journey[] fewestHopsFrom(CompiledTimetable tt, int source, int[] targets) {
+        Journey[] out = new Journey[targets.length];
+        if (source < 0) return out;
+        int[] depth = tt.distancesFrom(source);
+        int rounds = 0;
+        for (int t : targets) {
+            if (t >= 0 && t != source) rounds = Math.max(rounds, depth[t]);
+        }
+        if (rounds <= 0) return out;
+
+        // a single target also restricts the search to stations on some fewest-legs route
+        int[] toTarget = targets.length == 1 ? tt.distancesTo(targets[0]) : null;
+        int stations = tt.stationCount();
+        Workspace ws = WORKSPACE.get();
+        ws.reset(rounds, stations);
+        for (int i = 0; i < targets.length; i++) {
+            int t = targets[i];
+            if (t >= 0 && t != source && depth[t] > 0 && ws.slot[t] < 0) ws.slot[t] = i;
+        }
+        long pushes = 0;
+        long expansions = 0;
+        long prunes = 0;
+        long[] bestDuration = new long[targets.length];
+        long[] bestCost = new long[targets.length];
+
+        int hi = tt.outOffset[source + 1];
+        while (hi > tt.outOffset[source]) {
+            long d0 = tt.outDeparture[hi - 1];
+            int lo = hi - 1;
+            while (lo > tt.outOffset[source] && tt.outDeparture[lo - 1] == d0) lo--;
+
+            ws.beginIteration();
+            for (int p = lo; p < hi; p++) {
+                int leg = tt.outLegs[p];
+                int v = tt.legDestination[leg];
+                if (!onRoute(v, 1, depth, toTarget, rounds)) continue;
+                if (ws.relax(1, v, tt.legArrival[leg], tt.legCost[leg], leg, -1)) pushes++;
+                else prunes++;
+            }
+            for (int k = 2; k <= rounds && ws.roundCount(k - 1) > 0; k++) {
+                long cutoff = toTarget == null ? Long.MAX_VALUE : ws.earliest[targets[0]];
+                for (int m = 0; m < ws.roundCount(k - 1); m++) {
+                    int label = ws.roundLabel(k - 1, m);
+                    if (ws.dead[label]) continue;
+                    int u = ws.station[label];
+                    expansions++;
+                    long ready = ws.arrival[label];
+                    long paid = ws.cost[label];
+                    int begin = tt.outOffset[u];
+                    int degree = tt.outOffset[u + 1] - begin;
+                    int first = tt.firstDepartureAtOrAfter(u, ready % 1440);
+                    for (int step = 0; step < degree; step++) {
+                        int p = first + step;
+                        if (p >= begin + degree) p -= degree;
+                        int leg = tt.outLegs[p];
+                        long dep = CompiledTimetable.nextDeparture(tt.legDeparture[leg], ready);
+                        if (dep > cutoff) break;
+                        int v = tt.legDestination[leg];
+                        if (!onRoute(v, k, depth, toTarget, rounds)) continue;
+                        if (ws.relax(k, v, dep + tt.legArrival[leg] - tt.legDeparture[leg], paid + tt.legCost[leg], leg, label)) pushes++;
+                        else prunes++;
+                    }
+                }
+            }
+
+            for (int k = 1; k <= rounds; k++) {
+                for (int m = 0; m < ws.roundCount(k); m++) {
+                    int label = ws.roundLabel(k, m);
+                    int i = ws.slot[ws.station[label]];
+                    if (i < 0 || ws.dead[label]) continue;
+                    long duration = ws.arrival[label] - d0;
+                    if (out[i] == null || duration < bestDuration[i]
+                            || (duration == bestDuration[i] && ws.cost[label] < bestCost[i])) {
+                        out[i] = ws.journey(k, label, d0);
+                        bestDuration[i] = duration;
+                        bestCost[i] = ws.cost[label];
+                    }
+                }
+            }
+            hi = lo;
+        }
+
+        SearchCounters.current().add(pushes, expansions, prunes, 0);
+
+        for (int i = 0; i < targets.length; i++) {
+            int t = targets[i];
+            if (out[i] == null && t >= 0 && ws.slot[t] >= 0) out[i] = out[ws.slot[t]];
+        }
+        return out;
+    }
+
+    private static boolean onRoute(int v, int k, int[] depth, int[] toTarget, int rounds) {
+        if (depth[v] != k) return false;
+        return toTarget == null || (toTarget[v] >= 0 && k + toTarget[v] == rounds);
+    }
+
+    private static final class Workspace {
+        // label arena
+        int labels;
+        int[] station = new int[256];
+        long[] arrival = new long[256];
+        long[] cost = new long[256];
+        int[] leg = new int[256];
+        int[] parent = new int[256];
+        boolean[] dead = new boolean[256];
+
+        // per-station bags of live label ids, and the earliest arrival any label brought
+        int[][] bag = new int[0][];
+        int[] bagSize = new int[0];
+        long[] earliest = new long[0];
+        int[] slot = new int[0];
+
+        // labels added in each round of the current source departure
+        int[][] round = new int[0][];
+        int[] roundSize = new int[0];
+
+        void reset(int rounds, int stations) {
+            labels = 0;
+            if (bag.length < stations) {
+                bag = new int[stations][];
+                bagSize = new int[stations];
+                earliest = new long[stations];
+                slot = new int[stations];
+            }
+            if (round.length < rounds + 1) {
+                round = new int[rounds + 1][];
+                roundSize = new int[rounds + 1];
+            }
+            Arrays.fill(bagSize, 0, stations, 0);
+            Arrays.fill(earliest, 0, stations, Long.MAX_VALUE);
+            Arrays.fill(slot, 0, stations, -1);
+        }
+
+        void beginIteration() {
+            Arrays.fill(roundSize, 0);
+        }
+
+        int roundCount(int k) {
+            return roundSize[k];
+        }
+
+        int roundLabel(int k, int m) {
+            return round[k][m];
+        }
+
+        // false when a label at v already arrives no later for no more; otherwise the new
+        // label joins the bag and the labels it dominates die
+        boolean relax(int k, int v, long arr, long paid, int viaLeg, int from) {
+            int[] b = bag[v];
+            int n = bagSize[v];
+            for (int j = 0; j < n; j++) {
+                if (arrival[b[j]] <= arr && cost[b[j]] <= paid) return false;
+            }
+            int kept = 0;
+            for (int j = 0; j < n; j++) {
+                if (arrival[b[j]] >= arr && cost[b[j]] >= paid) dead[b[j]] = true;
+                else b[kept++] = b[j];
+            }
+            int label = newLabel(v, arr, paid, viaLeg, from);
+            if (b == null) b = bag[v] = new int[4];
+            else if (kept == b.length) b = bag[v] = Arrays.copyOf(b, kept * 2);
+            b[kept++] = label;
+            bagSize[v] = kept;
+            earliest[v] = Math.min(earliest[v], arr);
+
+            int[] r = round[k];
+            if (r == null) r = round[k] = new int[16];
+            else if (roundSize[k] == r.length) r = round[k] = Arrays.copyOf(r, r.length * 2);
+            r[roundSize[k]++] = label;
+            return true;
+        }
+
+        private int newLabel(int at, long arr, long paid, int viaLeg, int from) {
+            if (labels == station.length) {
+                int n = labels * 2;
+                station = Arrays.copyOf(station, n);
+                arrival = Arrays.copyOf(arrival, n);
+                cost = Arrays.copyOf(cost, n);
+                leg = Arrays.copyOf(leg, n);
+                parent = Arrays.copyOf(parent, n);
+                dead = Arrays.copyOf(dead, n);
+            }
+            int id = labels++;
+            station[id] = at;
+            arrival[id] = arr;
+            cost[id] = paid;
+            leg[id] = viaLeg;
+            parent[id] = from;
+            dead[id] = false;
+            return id;
+        }
+
+        Journey journey(int rounds, int label, long d0) {
+            int[] legs = new int[rounds];
+            for (int l = label, k = rounds; l >= 0; l = parent[l]) legs[--k] = leg[l];
+            return new Journey(legs, d0, arrival[label], cost[label]);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.nice.avishkar;
+
+/**
+ * How long a request's search may run: wall-clock milliseconds or work units (label
+ * expansions). A request with a budget is answered by the anytime search, which stops
+ * cooperatively once the budget is spent and reports the best journey found so far, whether
+ * it is proven optimal, and how far from the optimum it can be at most.
+ */
+public final class SearchBudget {
+
+    public static final SearchBudget UNLIMITED = new SearchBudget(0, 0);
+
+    // the wall clock is read once per this many expansions
+    private static final int CLOCK_INTERVAL = 64;
+
+    private final long nanos;
+    private final long expansions;
+
+    private SearchBudget(long nanos, long expansions) {
+        this.nanos = nanos;
+        this.expansions = expansions;
+    }
+
+    public static SearchBudget ofMillis(long millis) {
+        if (millis <= 0) throw new IllegalArgumentException("not a positive time budget: " + millis);
+        return new SearchBudget(millis * 1_000_000L, 0);
+    }
+
+    public static SearchBudget ofExpansions(long expansions) {
+        if (expansions <= 0) throw new IllegalArgumentException("not a positive work budget: " + expansions);
+        return new SearchBudget(0, expansions);
+    }
+
+    /** "250ms" for wall-clock time, a plain number for expansions; null when blank. */
+    public static SearchBudget parse(String text) {
+        if (text == null || text.trim().isEmpty()) return null;
+        String t = text.trim().toLowerCase();
+        try {
+            if (t.endsWith("ms")) return ofMillis(Long.parseLong(t.substring(0, t.length() - 2).trim()));
+            return ofExpansions(Long.parseLong(t));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("not a search budget: " + text, ex);
+        }
+    }
+
+    public boolean isUnlimited() {
+        return nanos == 0 && expansions == 0;
+    }
+
+    // true once a search that started at startedNanos has used the budget up
+    boolean spent(long expanded, long startedNanos) {
+        if (expansions > 0) return expanded >= expansions;
+        return nanos > 0 && expanded % CLOCK_INTERVAL == 0 && System.nanoTime() - startedNanos >= nanos;
+    }
+
+    @Override
+    public String toString() {
+        if (nanos > 0) return nanos / 1_000_000L + "ms";
+        return expansions > 0 ? Long.toString(expansions) : "unlimited";
+    }
+}
@@ -0,0 +1,35 @@
+package com.nice.avishkar;
+
+// Per-thread tallies the engines add to once per search, from plain local counters. The
+// optimizer reads them around a search when metrics are on; otherwise nobody looks.
+final class SearchCounters {
+
+    private static final ThreadLocal<SearchCounters> CURRENT = ThreadLocal.withInitial(SearchCounters::new);
+
+    // labels queued or entered into a front
+    long pushes;
+    // labels, stations or connections taken up for relaxation
+    long expansions;
+    // candidates discarded as dominated or already seen
+    long prunes;
+    // searches stopped early by a hard limit (MAX_EXPANSIONS, a full Pareto front, ...)
+    long cutoffs;
+
+    static SearchCounters current() {
+        return CURRENT.get();
+    }
+
+    void add(long pushes, long expansions, long prunes, long cutoffs) {
+        this.pushes += pushes;
+        this.expansions += expansions;
+        this.prunes += prunes;
+        this.cutoffs += cutoffs;
+    }
+
+    void reset() {
+        pushes = 0;
+        expansions = 0;
+        prunes = 0;
+        cutoffs = 0;
+    }
+}
@@ -0,0 +1,34 @@
+package com.nice.avishkar;
+
+public enum SearchEngine {
+    LABEL_SETTING,
+    CONNECTION_SCAN,
+    ROUND_BASED,
+    PARETO,
+    BIDIRECTIONAL,
+    ANYTIME;
+
+    boolean supports(String criteria) {
+        switch (this) {
+            case CONNECTION_SCAN:
+                return criteria == null || "time".equalsIgnoreCase(criteria);
+            case ROUND_BASED:
+                return "hops".equalsIgnoreCase(criteria);
+            default:
+                return true;
+        }
+    }
+
+    // null when blank, so the criteria's default engine applies
+    static SearchEngine parse(String name) {
+        if (name == null) return null;
+        String key = name.trim().replace("_", "").replace("-", "").replace(" ", "");
+        if (key.isEmpty()) return null;
+        if ("csa".equalsIgnoreCase(key)) return CONNECTION_SCAN;
+        if ("raptor".equalsIgnoreCase(key)) return ROUND_BASED;
+        for (SearchEngine e : values()) {
+            if (e.name().replace("_", "").equalsIgnoreCase(key)) return e;
+        }
+        throw new IllegalArgumentException("not a search engine: " + name);
+    }
+}
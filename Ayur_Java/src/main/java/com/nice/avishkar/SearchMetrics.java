@@ -0,0 +1,257 @@
+package com.nice.avishkar;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Aggregated counters and latency histograms for an optimizer. Attach one with
+// TravelOptimizerImpl.setMetrics; with none attached the optimizer does not read the
+// clock or the engines' counters at all. All methods are safe to call concurrently.
+public final class SearchMetrics {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder pushes = new LongAdder();
+    private final LongAdder expansions = new LongAdder();
+    private final LongAdder prunes = new LongAdder();
+    private final LongAdder cutoffs = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+    private final LongAdder summaryNanos = new LongAdder();
+    private final Histogram searchLatency = new Histogram();
+    private final Histogram summaryLatency = new Histogram();
+    private volatile Consumer<RequestMetrics> requestListener;
+
+    // receives one RequestMetrics per solved request; null to stop
+    public void setRequestListener(Consumer<RequestMetrics> requestListener) {
+        this.requestListener = requestListener;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getPushes() {
+        return pushes.sum();
+    }
+
+    public long getExpansions() {
+        return expansions.sum();
+    }
+
+    public long getPrunes() {
+        return prunes.sum();
+    }
+
+    public long getCutoffs() {
+        return cutoffs.sum();
+    }
+
+    public long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    public long getSearchNanos() {
+        return searchNanos.sum();
+    }
+
+    public long getSummaryNanos() {
+        return summaryNanos.sum();
+    }
+
+    public Histogram getSearchLatency() {
+        return searchLatency;
+    }
+
+    public Histogram getSummaryLatency() {
+        return summaryLatency;
+    }
+
+    public void reset() {
+        for (LongAdder a : new LongAdder[] { requests, searches, cacheHits, pushes, expansions, prunes, cutoffs,
+                parseNanos, searchNanos, summaryNanos }) {
+            a.reset();
+        }
+        searchLatency.reset();
+        summaryLatency.reset();
+    }
+
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("requests ").append(getRequests()).append(", searches ").append(getSearches())
+                .append(", cache hits ").append(getCacheHits()).append('\n');
+        sb.append("pushes ").append(getPushes()).append(", expansions ").append(getExpansions())
+                .append(", prunes ").append(getPrunes()).append(", cutoffs ").append(getCutoffs()).append('\n');
+        sb.append("time ms: parse ").append(getParseNanos() / 1_000_000).append(", search ").append(getSearchNanos() / 1_000_000)
+                .append(", summary ").append(getSummaryNanos() / 1_000_000).append('\n');
+        sb.append("search latency us: ").append(searchLatency).append('\n');
+        sb.append("summary latency us: ").append(summaryLatency).append('\n');
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return dump();
+    }
+
+    void recordParse(long nanos) {
+        parseNanos.add(nanos);
+    }
+
+    void recordCacheHits(int hits) {
+        cacheHits.add(hits);
+    }
+
+    // one engine call that answered the first `count` of `answered` together
+    void recordSearch(long nanos, SearchCounters counters, String engine, String criteria, CustomerRequest[] answered, int count) {
+        searches.increment();
+        searchNanos.add(nanos);
+        searchLatency.record(nanos);
+        pushes.add(counters.pushes);
+        expansions.add(counters.expansions);
+        prunes.add(counters.prunes);
+        cutoffs.add(counters.cutoffs);
+        Consumer<RequestMetrics> listener = requestListener;
+        if (listener == null) return;
+        for (int i = 0; i < count; i++) {
+            listener.accept(new RequestMetrics(answered[i].requestId, engine, criteria, count, nanos,
+                    counters.pushes, counters.expansions, counters.prunes, counters.cutoffs));
+        }
+    }
+
+    void recordRequests(int count) {
+        requests.add(count);
+    }
+
+    void recordSummary(long nanos) {
+        summaryNanos.add(nanos);
+        summaryLatency.record(nanos);
+    }
+
+    // counters of the search that answered one request; batched requests share their search's numbers
+    public static final class RequestMetrics {
+        private final String requestId;
+        private final String engine;
+        private final String criteria;
+        private final int batchSize;
+        private final long searchNanos;
+        private final long pushes;
+        private final long expansions;
+        private final long prunes;
+        private final long cutoffs;
+
+        RequestMetrics(String requestId, String engine, String criteria, int batchSize, long searchNanos,
+                       long pushes, long expansions, long prunes, long cutoffs) {
+            this.requestId = requestId;
+            this.engine = engine;
+            this.criteria = criteria;
+            this.batchSize = batchSize;
+            this.searchNanos = searchNanos;
+            this.pushes = pushes;
+            this.expansions = expansions;
+            this.prunes = prunes;
+            this.cutoffs = cutoffs;
+        }
+
+        public String getRequestId() {
+            return requestId;
+        }
+
+        public String getEngine() {
+            return engine;
+        }
+
+        public String getCriteria() {
+            return criteria;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public long getSearchNanos() {
+            return searchNanos;
+        }
+
+        public long getPushes() {
+            return pushes;
+        }
+
+        public long getExpansions() {
+            return expansions;
+        }
+
+        public long getPrunes() {
+            return prunes;
+        }
+
+        public long getCutoffs() {
+            return cutoffs;
+        }
+
+        public boolean isCutOff() {
+            return cutoffs > 0;
+        }
+    }
+
+    // power-of-two buckets over nanoseconds: bucket b holds values in [2^(b-1), 2^b)
+    public static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+
+        Histogram() {
+            for (int b = 0; b < buckets.length; b++) buckets[b] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            long v = Math.max(0, nanos);
+            buckets[64 - Long.numberOfLeadingZeros(v)].increment();
+            count.increment();
+            total.add(v);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getMeanNanos() {
+            long n = count.sum();
+            return n == 0 ? 0 : total.sum() / n;
+        }
+
+        // upper bound of the bucket holding the given quantile, 0 when empty
+        public long getPercentileNanos(double quantile) {
+            long n = count.sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(Math.min(1.0, Math.max(0.0, quantile)) * n);
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b].sum();
+                if (seen >= Math.max(1, rank)) return b == 0 ? 0 : (b >= 63 ? Long.MAX_VALUE : (1L << b) - 1);
+            }
+            return Long.MAX_VALUE;
+        }
+
+        void reset() {
+            for (LongAdder b : buckets) b.reset();
+            count.reset();
+            total.reset();
+        }
+
+        @Override
+        public String toString() {
+            return "count " + getCount() + ", mean " + getMeanNanos() / 1000 + ", p50 " + getPercentileNanos(0.5) / 1000
+                    + ", p90 " + getPercentileNanos(0.9) / 1000 + ", p99 " + getPercentileNanos(0.99) / 1000
+                    + ", max " + getPercentileNanos(1.0) / 1000;
+        }
+    }
+}
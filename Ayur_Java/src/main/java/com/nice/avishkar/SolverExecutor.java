@@ -0,0 +1,91 @@
+package com.nice.avishkar;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Where request solving runs. The default is the JVM-wide common pool, as before; the
+// other modes own their threads, so solving can be sized per host and kept apart from
+// everything else in the process. Close the executor when it is no longer used.
+public final class SolverExecutor implements AutoCloseable {
+
+    public enum Mode {
+        COMMON_POOL, WORK_STEALING, FIXED, VIRTUAL_THREADS
+    }
+
+    // requests per task when independent single searches are grouped
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final Mode mode;
+    private final int workers;
+    private final int chunkSize;
+    private final Executor executor;
+
+    private SolverExecutor(Mode mode, int workers, int chunkSize, Executor executor) {
+        this.mode = mode;
+        this.workers = workers;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.executor = executor;
+    }
+
+    public static SolverExecutor commonPool() {
+        return new SolverExecutor(Mode.COMMON_POOL, ForkJoinPool.getCommonPoolParallelism(), DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * workers <= 0 means one per available processor. VIRTUAL_THREADS needs a JDK with
+     * Executors.newVirtualThreadPerTaskExecutor and falls back to FIXED elsewhere.
+     */
+    public static SolverExecutor create(Mode mode, int workers, int chunkSize) {
+        int n = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        switch (mode) {
+            case COMMON_POOL:
+                return new SolverExecutor(Mode.COMMON_POOL, ForkJoinPool.getCommonPoolParallelism(), chunkSize, ForkJoinPool.commonPool());
+            case WORK_STEALING:
+                return new SolverExecutor(mode, n, chunkSize, new ForkJoinPool(n, pool -> {
+                    java.util.concurrent.ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    t.setName("travel-solver-" + THREADS.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, null, true));
+            case VIRTUAL_THREADS:
+                try {
+                    Executor virtual = (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                    return new SolverExecutor(mode, n, chunkSize, virtual);
+                } catch (ReflectiveOperationException ex) {
+                    return create(Mode.FIXED, n, chunkSize);
+                }
+            default:
+                return new SolverExecutor(Mode.FIXED, n, chunkSize, Executors.newFixedThreadPool(n, r -> {
+                    Thread t = new Thread(r, "travel-solver-" + THREADS.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }));
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    Executor executor() {
+        return executor;
+    }
+
+    @Override
+    public void close() {
+        if (mode != Mode.COMMON_POOL && executor instanceof ExecutorService) ((ExecutorService) executor).shutdown();
+    }
+}
@@ -0,0 +1,339 @@
+package com.nice.avishkar;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Itinerary summaries, produced off the search path. Prompts queue up and a bounded pool
+// of client threads sends them to the inference endpoint, taking whatever is waiting (up
+// to batchSize) in one call. Remote summaries are cached on the route legs; a failed or
+// malformed answer falls back to the local "Total travel time" text, and so does every
+// summary still unanswered timeoutMillis after it was asked for, queued or in flight.
+public final class SummaryService implements Closeable {
+
+    static final String DEFAULT_ENDPOINT = "https://api-inference.huggingface.co/models/facebook/bart-large-cnn";
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final int DEFAULT_BATCH_SIZE = 8;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+    public static final int DEFAULT_CACHE_SIZE = 10_000;
+
+    private static final int MAX_SUMMARY_LENGTH = 300;
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final String endpoint;
+    private final String apiKey;
+    private final int batchSize;
+    private final long timeoutMillis;
+    private final ThreadPoolExecutor client;
+    private final ScheduledThreadPoolExecutor timer;
+    private final ConcurrentLinkedQueue<Job> pending = new ConcurrentLinkedQueue<>();
+    private final Map<String, CompletableFuture<String>> cache;
+
+    public SummaryService(String endpoint, String apiKey, int concurrency, int batchSize, long timeoutMillis, int cacheSize) {
+        this.endpoint = endpoint;
+        this.apiKey = apiKey;
+        this.batchSize = Math.max(1, batchSize);
+        this.timeoutMillis = timeoutMillis;
+        int threads = Math.max(1, concurrency);
+        this.client = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "summary-client-" + THREADS.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.client.allowCoreThreadTimeOut(true);
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "summary-timer-" + THREADS.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.timer.setKeepAliveTime(30, TimeUnit.SECONDS);
+        this.timer.allowCoreThreadTimeOut(true);
+        this.cache = new LinkedHashMap<String, CompletableFuture<String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<String>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    // the public inference endpoint, enabled only when HF_API_KEY is set
+    public static SummaryService fromEnvironment() {
+        return new SummaryService(DEFAULT_ENDPOINT, System.getenv("HF_API_KEY"), DEFAULT_CONCURRENCY,
+                DEFAULT_BATCH_SIZE, DEFAULT_TIMEOUT_MILLIS, DEFAULT_CACHE_SIZE);
+    }
+
+    // one process-wide fromEnvironment() service, made on first use and never closed; its
+    // threads time out when idle
+    static SummaryService shared() {
+        return Shared.INSTANCE;
+    }
+
+    public CompletableFuture<String> summarize(List<Route> path, String criteria) {
+        if (apiKey == null || apiKey.isEmpty()) return CompletableFuture.completedFuture(localSummary(path, criteria));
+
+        String key = cacheKey(path, criteria);
+        CompletableFuture<String> result;
+        synchronized (cache) {
+            result = cache.get(key);
+            if (result != null) return result;
+            result = new CompletableFuture<>();
+            cache.put(key, result);
+        }
+        Job job = new Job(key, path, criteria, result, System.currentTimeMillis() + timeoutMillis);
+        pending.add(job);
+        try {
+            ScheduledFuture<?> deadline = timer.schedule(() -> fallback(job), timeoutMillis, TimeUnit.MILLISECONDS);
+            result.whenComplete((s, ex) -> deadline.cancel(false));
+            client.execute(this::drain);
+        } catch (RejectedExecutionException ex) {
+            for (Job queued; (queued = pending.poll()) != null; ) fallback(queued);
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        client.shutdownNow();
+        timer.shutdownNow();
+        for (Job job; (job = pending.poll()) != null; ) fallback(job);
+    }
+
+    private void drain() {
+        List<Job> batch = new ArrayList<>(batchSize);
+        long now = System.currentTimeMillis();
+        long deadline = Long.MAX_VALUE;
+        while (batch.size() < batchSize) {
+            Job job = pending.poll();
+            if (job == null) break;
+            if (job.result.isDone()) continue;
+            if (job.deadline <= now) {
+                fallback(job);
+                continue;
+            }
+            batch.add(job);
+            deadline = Math.min(deadline, job.deadline);
+        }
+        if (batch.isEmpty()) return;
+
+        List<String> summaries = null;
+        try {
+            summaries = send(batch, (int) Math.max(1, Math.min(Integer.MAX_VALUE, deadline - now)));
+        } catch (Exception ex) {
+            // fall back below
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            String s = summaries == null ? null : summaries.get(i);
+            if (s == null) fallback(batch.get(i));
+            else batch.get(i).result.complete(s);
+        }
+    }
+
+    // a no-op for a job already answered; the local text is not kept in the cache
+    private void fallback(Job job) {
+        if (!job.result.complete(localSummary(job.path, job.criteria))) return;
+        synchronized (cache) {
+            cache.remove(job.key, job.result);
+        }
+    }
+
+    // one summary per job in order, or null when the answer cannot be used; the call is cut
+    // off once timeout milliseconds have passed in all, not just between two reads
+    private List<String> send(List<Job> batch, int timeout) throws Exception {
+        StringBuilder inputs = new StringBuilder();
+        if (batch.size() == 1) {
+            inputs.append(jsonString(buildPrompt(batch.get(0).path, batch.get(0).criteria)));
+        } else {
+            inputs.append('[');
+            for (int i = 0; i < batch.size(); i++) {
+                if (i > 0) inputs.append(',');
+                inputs.append(jsonString(buildPrompt(batch.get(i).path, batch.get(i).criteria)));
+            }
+            inputs.append(']');
+        }
+        String json = "{\"inputs\":" + inputs + ",\"options\":{\"wait_for_model\":true}}";
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(endpoint).openConnection();
+        ScheduledFuture<?> abort = timer.schedule(conn::disconnect, timeout, TimeUnit.MILLISECONDS);
+        try {
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(timeout);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Authorization", "Bearer " + apiKey);
+            conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            conn.setDoOutput(true);
+            try (OutputStream os = conn.getOutputStream(); OutputStreamWriter osw = new OutputStreamWriter(os, StandardCharsets.UTF_8)) {
+                osw.write(json);
+                osw.flush();
+            }
+            if (conn.getResponseCode() != 200) return null;
+            StringBuilder sb = new StringBuilder();
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) sb.append(line).append('\n');
+            }
+            String text = sb.toString();
+
+            List<String> out = new ArrayList<>(batch.size());
+            if (batch.size() == 1) {
+                String summary = extractSummaryFromResponse(text);
+                out.add(truncate(summary != null && !summary.isEmpty() ? summary : text));
+                return out;
+            }
+            for (String s : extractAll(text, "\"summary_text\"")) out.add(truncate(s));
+            return out.size() == batch.size() ? out : null;
+        } finally {
+            abort.cancel(false);
+            conn.disconnect();
+        }
+    }
+
+    static String localSummary(List<Route> path, String criteria) {
+        long duration = 0;
+        if (path != null && !path.isEmpty()) {
+            try {
+                long start = parseTime(path.get(0).getDepartureTime());
+                long end = parseTime(path.get(path.size()-1).getArrivalTime());
+                duration = end >= start ? (end - start) : (end + 1440 - start);
+            } catch (Exception ex) { duration = 0; }
+        }
+        return "Total travel time " + duration + " minutes. Optimal by " + criteria + ".";
+    }
+
+    private static String cacheKey(List<Route> path, String criteria) {
+        StringBuilder sb = new StringBuilder(criteria == null ? "" : criteria);
+        for (Route r : path) {
+            sb.append('|').append(r.getSource()).append(',').append(r.getDestination()).append(',').append(r.getMode())
+                    .append(',').append(r.getDepartureTime()).append(',').append(r.getArrivalTime());
+        }
+        return sb.toString();
+    }
+
+    private static String buildPrompt(List<Route> path, String criteria) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("You are a travel assistant. Provide a one-sentence (<=60 words) summary for this itinerary. Criteria: ").append(criteria).append(".\n");
+        sb.append("Legs:\n");
+        if (path != null) {
+            for (Route r : path) {
+                sb.append(r.getSource()).append("->").append(r.getDestination()).append(" (")
+                        .append(r.getDepartureTime()).append("-").append(r.getArrivalTime()).append(")\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String jsonString(String s) {
+        return "\"" + s.replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    private static String truncate(String s) {
+        return s.length() > MAX_SUMMARY_LENGTH ? s.substring(0, MAX_SUMMARY_LENGTH) : s;
+    }
+
+    private static long parseTime(String t) {
+        try {
+            String[] p = t.split(":");
+            int hh = Integer.parseInt(p[0]);
+            int mm = Integer.parseInt(p[1]);
+            return hh * 60L + mm;
+        } catch (Exception ex) { return 0; }
+    }
+
+    private static List<String> extractAll(String respBody, String field) {
+        List<String> out = new ArrayList<>();
+        int from = 0;
+        while (true) {
+            int idx = respBody.indexOf(field, from);
+            if (idx < 0) return out;
+            int colon = respBody.indexOf(':', idx);
+            int firstQuote = colon < 0 ? -1 : respBody.indexOf('"', colon);
+            int secondQuote = firstQuote < 0 ? -1 : respBody.indexOf('"', firstQuote + 1);
+            if (secondQuote < 0) return out;
+            out.add(unescapeJsonString(respBody.substring(firstQuote + 1, secondQuote)));
+            from = secondQuote + 1;
+        }
+    }
+
+    private static String extractSummaryFromResponse(String respBody) {
+        if (respBody == null || respBody.isEmpty()) return null;
+        String lower = respBody;
+        int idx = lower.indexOf("\"summary_text\"");
+        if (idx >= 0) {
+            int colon = lower.indexOf(':', idx);
+            if (colon >= 0) {
+                int firstQuote = lower.indexOf('"', colon);
+                if (firstQuote >= 0) {
+                    int secondQuote = lower.indexOf('"', firstQuote + 1);
+                    if (secondQuote > firstQuote) {
+                        return unescapeJsonString(lower.substring(firstQuote + 1, secondQuote));
+                    }
+                }
+            }
+        }
+        idx = lower.indexOf("\"generated_text\"");
+        if (idx >= 0) {
+            int colon = lower.indexOf(':', idx);
+            if (colon >= 0) {
+                int firstQuote = lower.indexOf('"', colon);
+                if (firstQuote >= 0) {
+                    int secondQuote = lower.indexOf('"', firstQuote + 1);
+                    if (secondQuote > firstQuote) {
+                        return unescapeJsonString(lower.substring(firstQuote + 1, secondQuote));
+                    }
+                }
+            }
+        }
+        String trimmed = respBody.trim();
+        if (trimmed.startsWith("[")) trimmed = trimmed.substring(1);
+        if (trimmed.endsWith("]")) trimmed = trimmed.substring(0, trimmed.length()-1);
+        if (trimmed.startsWith("{")) trimmed = trimmed.substring(1);
+        if (trimmed.endsWith("}")) trimmed = trimmed.substring(0, trimmed.length()-1);
+        trimmed = trimmed.replaceAll("\\\\n", " ").replaceAll("\\\\r", " ");
+        return !trimmed.isEmpty() ? trimmed : null;
+    }
+
+    private static String unescapeJsonString(String s) {
+        return s.replaceAll("\\\\\"", "\"")
+                .replaceAll("\\\\n", " ")
+                .replaceAll("\\\\r", " ")
+                .replaceAll("\\\\t", " ");
+    }
+
+    private static final class Shared {
+        static final SummaryService INSTANCE = fromEnvironment();
+    }
+
+    private static final class Job {
+        final String key;
+        final List<Route> path;
+        final String criteria;
+        final CompletableFuture<String> result;
+        final long deadline;
+
+        Job(String key, List<Route> path, String criteria, CompletableFuture<String> result, long deadline) {
+            this.key = key;
+            this.path = path;
+            this.criteria = criteria;
+            this.result = result;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.nice.avishkar;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Binary image of a CompiledTimetable, little-endian:
+//   int magic, int format version, long timetable version,
+//   int live legs, leg slots, stations, texts,
+//   stations then texts as (int byte length, UTF-8 bytes), zero padding to 8 bytes,
+//   int columns legSource, legDestination, legMode, legDepartureText, legArrivalText [slots],
+//   int outOffset [stations + 1], outLegs [live], inOffset [stations + 1], inLegs [live], connections [live],
+//   zero padding to 8 bytes,
+//   long columns legDeparture, legArrival, legCost [slots], outDeparture [live],
+//   long CRC32 of everything before it.
+// Loading maps the file and bulk-copies each array; nothing is parsed, interned or sorted.
+final class TimetableSnapshot {
+
+    static final int MAGIC = 0x4E545431;
+    static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_BYTES = 32;
+
+    private TimetableSnapshot() {
+    }
+
+    static void write(CompiledTimetable tt, Path path) throws IOException {
+        int slots = tt.legSource.length;
+        int live = tt.connections.length;
+        int stations = tt.stationNames.length;
+        byte[][] stationBytes = encode(tt.stationNames);
+        byte[][] textBytes = encode(tt.texts);
+
+        long total = HEADER_BYTES + stringBytes(stationBytes) + stringBytes(textBytes);
+        total = align(total);
+        total += 4L * (5L * slots + 2L * (stations + 1) + 3L * live);
+        total = align(total);
+        total += 8L * (3L * slots + live) + 8;
+        if (total > Integer.MAX_VALUE) throw new IOException("timetable too large for a snapshot: " + total + " bytes");
+
+        ByteBuffer buf = ByteBuffer.allocate((int) total).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(tt.version);
+        buf.putInt(tt.size).putInt(slots).putInt(stations).putInt(tt.texts.length);
+        for (byte[] b : stationBytes) buf.putInt(b.length).put(b);
+        for (byte[] b : textBytes) buf.putInt(b.length).put(b);
+        pad(buf);
+        for (int[] column : new int[][] { tt.legSource, tt.legDestination, tt.legMode, tt.legDepartureText, tt.legArrivalText,
+                tt.outOffset, tt.outLegs, tt.inOffset, tt.inLegs, tt.connections }) {
+            buf.asIntBuffer().put(column);
+            skip(buf, 4L * column.length);
+        }
+        pad(buf);
+        for (long[] column : new long[][] { tt.legDeparture, tt.legArrival, tt.legCost, tt.outDeparture }) {
+            buf.asLongBuffer().put(column);
+            skip(buf, 8L * column.length);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putLong(crc.getValue());
+        ((Buffer) buf).flip();
+
+        // written aside and moved into place, so a reader never maps a half-written file
+        Path dir = path.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buf.hasRemaining()) out.write(buf);
+                out.force(false);
+            }
+            try {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    static CompiledTimetable read(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (in.size() < HEADER_BYTES + 8 || in.size() > Integer.MAX_VALUE) throw new IOException("not a timetable snapshot: " + path);
+            mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        }
+        ByteBuffer buf = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.getInt(0) != MAGIC) throw new IOException("not a timetable snapshot: " + path);
+        int format = buf.getInt(4);
+        if (format != FORMAT_VERSION) throw new IOException("unsupported timetable snapshot version " + format + ": " + path);
+
+        int end = buf.capacity() - 8;
+        ByteBuffer body = buf.duplicate();
+        ((Buffer) body).limit(end);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if (crc.getValue() != buf.getLong(end)) throw new IOException("timetable snapshot checksum mismatch: " + path);
+
+        try {
+            ((Buffer) buf).position(8);
+            long version = buf.getLong();
+            int size = buf.getInt();
+            int slots = buf.getInt();
+            int stations = buf.getInt();
+            int texts = buf.getInt();
+            if (size < 0 || slots < size || stations < 0 || texts < 0) throw new IOException("corrupt timetable snapshot: " + path);
+            String[] stationNames = decode(buf, stations);
+            String[] textTable = decode(buf, texts);
+            align(buf);
+            int[] legSource = ints(buf, slots);
+            int[] legDestination = ints(buf, slots);
+            int[] legMode = ints(buf, slots);
+            int[] legDepartureText = ints(buf, slots);
+            int[] legArrivalText = ints(buf, slots);
+            int[] outOffset = ints(buf, stations + 1);
+            int[] outLegs = ints(buf, size);
+            int[] inOffset = ints(buf, stations + 1);
+            int[] inLegs = ints(buf, size);
+            int[] connections = ints(buf, size);
+            align(buf);
+            long[] legDeparture = longs(buf, slots);
+            long[] legArrival = longs(buf, slots);
+            long[] legCost = longs(buf, slots);
+            long[] outDeparture = longs(buf, size);
+            if (buf.position() != end) throw new IOException("corrupt timetable snapshot: " + path);
+            return new CompiledTimetable(version, size, stationNames, textTable, legSource, legDestination, legDeparture, legArrival,
+                    legCost, legMode, legDepartureText, legArrivalText, outOffset, outLegs, outDeparture, inOffset, inLegs, connections);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException ex) {
+            throw new IOException("corrupt timetable snapshot: " + path, ex);
+        }
+    }
+
+    private static byte[][] encode(String[] names) {
+        byte[][] out = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) out[i] = names[i].getBytes(StandardCharsets.UTF_8);
+        return out;
+    }
+
+    private static long stringBytes(byte[][] strings) {
+        long n = 0;
+        for (byte[] b : strings) n += 4 + b.length;
+        return n;
+    }
+
+    private static String[] decode(ByteBuffer buf, int count) {
+        String[] out = new String[count];
+        for (int i = 0; i < count; i++) {
+            byte[] b = new byte[buf.getInt()];
+            buf.get(b);
+            out[i] = new String(b, StandardCharsets.UTF_8);
+        }
+        return out;
+    }
+
+    private static int[] ints(ByteBuffer buf, int count) {
+        int[] out = new int[count];
+        buf.asIntBuffer().get(out);
+        skip(buf, 4L * count);
+        return out;
+    }
+
+    private static long[] longs(ByteBuffer buf, int count) {
+        long[] out = new long[count];
+        buf.asLongBuffer().get(out);
+        skip(buf, 8L * count);
+        return out;
+    }
+
+    private static long align(long n) {
+        return (n + 7) & ~7L;
+    }
+
+    private static void align(ByteBuffer buf) {
+        ((Buffer) buf).position((int) align(buf.position()));
+    }
+
+    private static void pad(ByteBuffer buf) {
+        while ((buf.position() & 7) != 0) buf.put((byte) 0);
+    }
+
+    private static void skip(ByteBuffer buf, long bytes) {
+        ((Buffer) buf).position((int) (buf.position() + bytes));
+    }
+}
@@ -0,0 +1,70 @@
+package com.nice.avishkar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// A batch of leg changes for CompiledTimetable.apply, applied in the order they were
+// made. A leg is identified the way a Schedules.csv row is: source, destination, mode,
+// departure and arrival time; the route of a returned schedule can be passed back as is.
+public final class TimetableUpdate {
+
+    static final class Change {
+        final boolean remove;
+        final Route route;
+        final long cost;
+
+        Change(boolean remove, Route route, long cost) {
+            this.remove = remove;
+            this.route = route;
+            this.cost = cost;
+        }
+    }
+
+    private final List<Change> changes = new ArrayList<>();
+
+    public TimetableUpdate add(Route leg, long cost) {
+        changes.add(new Change(false, copy(leg), cost));
+        return this;
+    }
+
+    public TimetableUpdate remove(Route leg) {
+        changes.add(new Change(true, copy(leg), 0));
+        return this;
+    }
+
+    // a retimed, rerouted or repriced leg: the old one is cancelled and the new one added
+    public TimetableUpdate modify(Route leg, Route replacement, long cost) {
+        remove(leg);
+        return add(replacement, cost);
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    List<Change> changes() {
+        return Collections.unmodifiableList(changes);
+    }
+
+    // Route is mutable, so keep what it said when the change was made
+    private static Route copy(Route leg) {
+        return new Route(leg.getSource(), leg.getDestination(), leg.getMode(), leg.getDepartureTime(), leg.getArrivalTime());
+    }
+
+    // "HH:MM" into minutes of day, 0 when malformed, as when reading Schedules.csv
+    static long minutes(String time) {
+        if (time == null) return 0;
+        String[] parts = time.split(":");
+        if (parts.length < 2) return 0;
+        try {
+            return Integer.parseInt(parts[0]) * 60L + Integer.parseInt(parts[1]);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.nice.avishkar;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Transfer patterns for popular origin-destination pairs. For each pair the station
+ * sequences of all (duration, cost, hops) Pareto-optimal journeys are found once, offline,
+ * with the exact Pareto search. Every optimal journey of the pair runs along one of those
+ * sequences, so searching only the legs between consecutive pattern stations gives the
+ * same optimum as searching the whole network, over a few stations instead of all of them.
+ * Patterns belong to the timetable they were built for and are not used with any other,
+ * including later versions of a LiveTimetable.
+ */
+public final class TransferPatterns {
+
+    static final int MAGIC = 0x4E545450;
+    static final int FORMAT_VERSION = 1;
+
+    private final CompiledTimetable timetable;
+    private final long fingerprint;
+    private final Map<Long, Pair> pairs;
+
+    private static final class Pair {
+        final int[][] patterns;
+        // the legs along the patterns as their own timetable; graph leg i is legs[i]
+        final CompiledTimetable graph;
+        final int[] legs;
+        final int source;
+        final int target;
+
+        Pair(CompiledTimetable tt, int source, int target, int[][] patterns) {
+            this.patterns = patterns;
+            Set<Long> edges = new LinkedHashSet<>();
+            for (int[] stations : patterns) {
+                for (int k = 0; k + 1 < stations.length; k++) edges.add(key(stations[k], stations[k + 1]));
+            }
+            int[] found = new int[16];
+            int n = 0;
+            for (long edge : edges) {
+                int u = (int) (edge >>> 32);
+                int v = (int) edge;
+                for (int p = tt.outOffset[u]; p < tt.outOffset[u + 1]; p++) {
+                    int leg = tt.outLegs[p];
+                    if (tt.legDestination[leg] != v) continue;
+                    if (n == found.length) found = Arrays.copyOf(found, n * 2);
+                    found[n++] = leg;
+                }
+            }
+            this.legs = Arrays.copyOf(found, n);
+            Arrays.sort(legs);
+            this.graph = CompiledTimetable.subset(tt, legs);
+            this.source = graph.stationId(tt.stationName(source));
+            this.target = graph.stationId(tt.stationName(target));
+        }
+    }
+
+    private TransferPatterns(CompiledTimetable timetable, long fingerprint, Map<Long, Pair> pairs) {
+        this.timetable = timetable;
+        this.fingerprint = fingerprint;
+        this.pairs = pairs;
+    }
+
+    /**
+     * Patterns for the maxPairs most frequent (source, destination) pairs among the
+     * requests, e.g. yesterday's request log. Pairs are solved in parallel.
+     */
+    public static TransferPatterns build(CompiledTimetable tt, Iterable<CustomerRequest> requests, int maxPairs) {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (CustomerRequest r : requests) {
+            int s = tt.stationId(r.getSource());
+            int t = tt.stationId(r.getDestination());
+            if (s < 0 || t < 0 || s == t) continue;
+            counts.merge(key(s, t), 1, Integer::sum);
+        }
+        List<Map.Entry<Long, Integer>> popular = new ArrayList<>(counts.entrySet());
+        popular.sort((a, b) -> a.getValue().equals(b.getValue()) ? Long.compare(a.getKey(), b.getKey()) : Integer.compare(b.getValue(), a.getValue()));
+        long[] keys = new long[Math.min(Math.max(0, maxPairs), popular.size())];
+        for (int i = 0; i < keys.length; i++) keys[i] = popular.get(i).getKey();
+
+        Pair[] built = new Pair[keys.length];
+        IntStream.range(0, keys.length).parallel().forEach(i -> {
+            int s = (int) (keys[i] >>> 32);
+            int t = (int) keys[i];
+            built[i] = new Pair(tt, s, t, patternsOf(ParetoEngine.paretoSet(tt, s, t, ParetoEngine.UNBOUNDED), tt));
+        });
+        Map<Long, Pair> pairs = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) pairs.put(keys[i], built[i]);
+        return new TransferPatterns(tt, fingerprint(tt), pairs);
+    }
+
+    public static TransferPatterns build(CompiledTimetable tt, Path customerRequestPath, int maxPairs) throws IOException {
+        List<CustomerRequest> requests = new ArrayList<>();
+        try (CustomerRequest.Reader in = CustomerRequest.read(customerRequestPath)) {
+            while (in.hasNext()) requests.add(in.next());
+        }
+        return build(tt, requests, maxPairs);
+    }
+
+    public int getPairCount() {
+        return pairs.size();
+    }
+
+    public int getPatternCount() {
+        int n = 0;
+        for (Pair p : pairs.values()) n += p.patterns.length;
+        return n;
+    }
+
+    public boolean covers(String source, String destination) {
+        return covers(timetable.stationId(source), timetable.stationId(destination));
+    }
+
+    boolean isFor(CompiledTimetable tt) {
+        return tt == timetable;
+    }
+
+    boolean covers(int source, int target) {
+        return source >= 0 && target >= 0 && pairs.containsKey(key(source, target));
+    }
+
+    // the exact optimum for a covered pair, null when the pair has no route at all
+    Journey best(int source, int target, String criteria) {
+        Pair p = pairs.get(key(source, target));
+        if (p.patterns.length == 0) return null;
+        Journey j = ParetoEngine.best(p.graph, p.source, p.target, criteria, ParetoEngine.UNBOUNDED);
+        if (j == null) return null;
+        int[] legs = new int[j.legs.length];
+        for (int k = 0; k < legs.length; k++) legs[k] = p.legs[j.legs[k]];
+        return new Journey(legs, j.departure, j.arrival, j.cost);
+    }
+
+    // little-endian: magic, format version, timetable fingerprint, pair count, then per pair
+    // source, target, pattern count and each pattern as (length, station ids); CRC32 last
+    public void save(Path path) throws IOException {
+        long bytes = 24;
+        for (Pair p : pairs.values()) {
+            bytes += 12;
+            for (int[] stations : p.patterns) bytes += 4 + 4L * stations.length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) (bytes + 8)).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(fingerprint).putInt(pairs.size()).putInt(0);
+        for (Map.Entry<Long, Pair> e : pairs.entrySet()) {
+            buf.putInt((int) (e.getKey() >>> 32)).putInt((int) (long) e.getKey()).putInt(e.getValue().patterns.length);
+            for (int[] stations : e.getValue().patterns) {
+                buf.putInt(stations.length);
+                for (int s : stations) buf.putInt(s);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putLong(crc.getValue());
+        Files.write(path, buf.array());
+    }
+
+    // fails when the file was built for a different timetable
+    public static TransferPatterns load(Path path, CompiledTimetable tt) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.capacity() < 32 || buf.getInt(0) != MAGIC) throw new IOException("not a transfer pattern file: " + path);
+        int format = buf.getInt(4);
+        if (format != FORMAT_VERSION) throw new IOException("unsupported transfer pattern version " + format + ": " + path);
+        int end = buf.capacity() - 8;
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, end);
+        if (crc.getValue() != buf.getLong(end)) throw new IOException("transfer pattern checksum mismatch: " + path);
+        long fingerprint = fingerprint(tt);
+        if (buf.getLong(8) != fingerprint) throw new IOException("transfer patterns were built for a different timetable: " + path);
+
+        try {
+            ((Buffer) buf).position(16);
+            int count = buf.getInt();
+            buf.getInt();
+            Map<Long, Pair> pairs = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                int s = buf.getInt();
+                int t = buf.getInt();
+                int[][] patterns = new int[buf.getInt()][];
+                for (int k = 0; k < patterns.length; k++) {
+                    patterns[k] = new int[buf.getInt()];
+                    for (int j = 0; j < patterns[k].length; j++) patterns[k][j] = buf.getInt();
+                }
+                pairs.put(key(s, t), new Pair(tt, s, t, patterns));
+            }
+            return new TransferPatterns(tt, fingerprint, pairs);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException ex) {
+            throw new IOException("corrupt transfer pattern file: " + path, ex);
+        }
+    }
+
+    // distinct station sequences of the journeys, in front order
+    private static int[][] patternsOf(List<Journey> front, CompiledTimetable tt) {
+        Map<List<Integer>, int[]> seen = new LinkedHashMap<>();
+        for (Journey j : front) {
+            int[] stations = new int[j.legs.length + 1];
+            stations[0] = tt.legSource[j.legs[0]];
+            for (int k = 0; k < j.legs.length; k++) stations[k + 1] = tt.legDestination[j.legs[k]];
+            List<Integer> id = new ArrayList<>(stations.length);
+            for (int s : stations) id.add(s);
+            seen.putIfAbsent(id, stations);
+        }
+        return seen.values().toArray(new int[0][]);
+    }
+
+    // CRC32 over station names and every live leg, so patterns never meet a changed network
+    static long fingerprint(CompiledTimetable tt) {
+        CRC32 crc = new CRC32();
+        ByteBuffer buf = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN);
+        for (String name : tt.stationNames) {
+            byte[] b = name.getBytes(StandardCharsets.UTF_8);
+            crc.update(b, 0, b.length);
+            crc.update(0);
+        }
+        for (int leg : tt.connections) {
+            if (buf.remaining() < 32) flush(crc, buf);
+            buf.putInt(tt.legSource[leg]).putInt(tt.legDestination[leg]).putLong(tt.legDeparture[leg])
+                    .putLong(tt.legArrival[leg]).putLong(tt.legCost[leg]);
+        }
+        flush(crc, buf);
+        return crc.getValue();
+    }
+
+    private static void flush(CRC32 crc, ByteBuffer buf) {
+        crc.update(buf.array(), 0, buf.position());
+        ((Buffer) buf).clear();
+    }
+
+    private static long key(int source, int target) {
+        return ((long) source << 32) | (target & 0xFFFFFFFFL);
+    }
+}
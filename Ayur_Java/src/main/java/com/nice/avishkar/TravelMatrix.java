@@ -0,0 +1,173 @@
+package com.nice.avishkar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Origin-destination matrices of the Time, Cost and Hops optimum for every pair of the
+ * given sources and destinations, as dense row-major long arrays: entry (i, j) is at
+ * i * destinations + j, 0 where a source is its own destination and -1 where there is no
+ * route or the station is unknown. Every value is what getOptimalTravelOptions would
+ * report for the pair with an exact engine, without building one request per pair:
+ * <ul>
+ *   <li>durations: one backward connection scan per destination answers all sources at once;</li>
+ *   <li>costs: fares do not depend on departure times, so one fare Dijkstra per source
+ *       answers all destinations;</li>
+ *   <li>hops: a breadth-first search from 64 sources at a time, one bit lane per source.</li>
+ * </ul>
+ * Destinations and sources are solved in parallel.
+ */
+public final class TravelMatrix {
+
+    private final List<String> sources;
+    private final List<String> destinations;
+    private final long[] durations;
+    private final long[] costs;
+    private final long[] hops;
+
+    private TravelMatrix(List<String> sources, List<String> destinations, long[] durations, long[] costs, long[] hops) {
+        this.sources = sources;
+        this.destinations = destinations;
+        this.durations = durations;
+        this.costs = costs;
+        this.hops = hops;
+    }
+
+    public static TravelMatrix build(CompiledTimetable tt, List<String> sources, List<String> destinations) {
+        int rows = sources.size();
+        int cols = destinations.size();
+        int[] from = new int[rows];
+        int[] to = new int[cols];
+        for (int i = 0; i < rows; i++) from[i] = tt.stationId(sources.get(i));
+        for (int j = 0; j < cols; j++) to[j] = tt.stationId(destinations.get(j));
+
+        long[] durations = new long[rows * cols];
+        long[] costs = new long[rows * cols];
+        long[] hops = new long[rows * cols];
+        IntStream.range(0, cols).parallel().forEach(j -> {
+            Journey[] fastest = ConnectionScanEngine.fastestTo(tt, from, to[j]);
+            for (int i = 0; i < rows; i++) durations[i * cols + j] = value(from[i], to[j], fastest[i] == null ? -1 : fastest[i].duration());
+        });
+        boolean negativeFares = false;
+        for (int leg : tt.connections) {
+            if (tt.legCost[leg] < 0) negativeFares = true;
+        }
+        boolean exactFares = !negativeFares;
+        IntStream.range(0, rows).parallel().forEach(i -> fares(tt, from[i], to, exactFares, costs, i * cols));
+        IntStream.range(0, (rows + 63) / 64).parallel().forEach(block -> legCounts(tt, from, to, block * 64, hops));
+        return new TravelMatrix(Collections.unmodifiableList(new ArrayList<>(sources)),
+                Collections.unmodifiableList(new ArrayList<>(destinations)), durations, costs, hops);
+    }
+
+    public List<String> getSources() {
+        return sources;
+    }
+
+    public List<String> getDestinations() {
+        return destinations;
+    }
+
+    public long getDuration(int source, int destination) {
+        return durations[index(source, destination)];
+    }
+
+    public long getCost(int source, int destination) {
+        return costs[index(source, destination)];
+    }
+
+    public long getHops(int source, int destination) {
+        return hops[index(source, destination)];
+    }
+
+    // row-major copies
+    public long[] getDurations() {
+        return durations.clone();
+    }
+
+    public long[] getCosts() {
+        return costs.clone();
+    }
+
+    public long[] getHops() {
+        return hops.clone();
+    }
+
+    private int index(int source, int destination) {
+        if (source < 0 || source >= sources.size() || destination < 0 || destination >= destinations.size()) {
+            throw new IndexOutOfBoundsException("(" + source + ", " + destination + ") outside " + sources.size() + " x " + destinations.size());
+        }
+        return source * destinations.size() + destination;
+    }
+
+    private static long value(int source, int target, long found) {
+        if (source < 0 || target < 0) return -1;
+        return source == target ? 0 : found;
+    }
+
+    // the cheapest journey is the cheapest leg sequence, since every leg can be caught by
+    // waiting; negative fares (or sums past the Dijkstra's int range) go to the exact search
+    private static void fares(CompiledTimetable tt, int source, int[] targets, boolean exactFares, long[] out, int offset) {
+        long[] fare = source >= 0 && exactFares ? LowerBounds.dijkstra(tt, source, true, true) : null;
+        for (int j = 0; j < targets.length; j++) {
+            int t = targets[j];
+            long found = -1;
+            if (source >= 0 && t >= 0 && source != t) {
+                if (fare == null || fare[t] == Integer.MAX_VALUE) {
+                    Journey cheapest = ParetoEngine.best(tt, source, t, "Cost", ParetoEngine.UNBOUNDED);
+                    if (cheapest != null) found = cheapest.cost;
+                } else if (fare[t] != Long.MAX_VALUE) {
+                    found = fare[t];
+                }
+            }
+            out[offset + j] = value(source, t, found);
+        }
+    }
+
+    // fewest legs is plain graph distance; bit i of a station's word marks source first + i
+    private static void legCounts(CompiledTimetable tt, int[] sources, int[] targets, int first, long[] out) {
+        int stations = tt.stationCount();
+        int lanes = Math.min(64, sources.length - first);
+        long[] seen = new long[stations];
+        long[] frontier = new long[stations];
+        long[] next = new long[stations];
+        int[][] depth = new int[lanes][stations];
+        for (int lane = 0; lane < lanes; lane++) {
+            Arrays.fill(depth[lane], -1);
+            int s = sources[first + lane];
+            if (s < 0) continue;
+            seen[s] |= 1L << lane;
+            frontier[s] |= 1L << lane;
+            depth[lane][s] = 0;
+        }
+        for (int d = 1; ; d++) {
+            Arrays.fill(next, 0);
+            boolean any = false;
+            for (int u = 0; u < stations; u++) {
+                long bits = frontier[u];
+                if (bits == 0) continue;
+                for (int p = tt.outOffset[u]; p < tt.outOffset[u + 1]; p++) next[tt.legDestination[tt.outLegs[p]]] |= bits;
+            }
+            for (int v = 0; v < stations; v++) {
+                long fresh = next[v] & ~seen[v];
+                frontier[v] = fresh;
+                if (fresh == 0) continue;
+                any = true;
+                seen[v] |= fresh;
+                for (long b = fresh; b != 0; b &= b - 1) depth[Long.numberOfTrailingZeros(b)][v] = d;
+            }
+            if (!any) break;
+        }
+
+        int cols = targets.length;
+        for (int lane = 0; lane < lanes; lane++) {
+            int s = sources[first + lane];
+            for (int j = 0; j < cols; j++) {
+                int t = targets[j];
+                out[(first + lane) * cols + j] = value(s, t, t < 0 || s < 0 ? -1 : depth[lane][t]);
+            }
+        }
+    }
+}
@@ -2,27 +2,34 @@ package com.nice.avishkar;
 
 
 import java.io.IOException;
-import java.net.URL;
-import java.net.HttpURLConnection;
-import java.io.InputStreamReader;
-import java.io.BufferedReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
 import java.util.Map;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Comparator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 
 
 public class TravelOptimizerImpl implements ITravelOptimizer {
 
     private final boolean generateSummary;
+    private final Map<String, SearchEngine> defaultEngines = new java.util.concurrent.ConcurrentHashMap<>();
+    private volatile int paretoFrontLimit = ParetoEngine.UNBOUNDED;
+    private volatile QueryCache queryCache = new QueryCache();
+    private volatile int maxInFlight = 4096;
+    // null for the shared default, only made once a summary is asked for
+    private volatile SummaryService summaries;
+    private volatile SolverExecutor solverExecutor = SolverExecutor.commonPool();
+    private volatile SearchMetrics metrics;
+    private volatile TransferPatterns transferPatterns;
+    private volatile boolean goalDirected = true;
 
     TravelOptimizerImpl(boolean generateSummary)
     {
@@ -30,438 +37,474 @@ public class TravelOptimizerImpl implements ITravelOptimizer {
     }
 
     public Map<String, OptimalTravelSchedule> getOptimalTravelOptions(ResourceInfo resourceInfo) throws IOException {
-        List<ScheduleRecord> schedules = readSchedules(resourceInfo.getTransportSchedulePath());
-        List<CustomerRequest> requests = readRequests(resourceInfo.getCustomerRequestPath());
-
-        Map<Integer, ScheduleRecord> idxToSchedule = new HashMap<>();
-        for (int i = 0; i < schedules.size(); i++) idxToSchedule.put(i, schedules.get(i));
-
-        Map<String, List<Integer>> departuresFrom = new HashMap<>();
-        for (int i = 0; i < schedules.size(); i++) {
-            departuresFrom.computeIfAbsent(schedules.get(i).source, k -> new ArrayList<>()).add(i);
-        }
+        SearchMetrics stats = metrics;
+        long started = stats == null ? 0 : System.nanoTime();
+        CompiledTimetable timetable = CompiledTimetable.compile(resourceInfo);
+        if (stats != null) stats.recordParse(System.nanoTime() - started);
+        return getOptimalTravelOptions(timetable, resourceInfo.getCustomerRequestPath());
+    }
 
+    public Map<String, OptimalTravelSchedule> getOptimalTravelOptions(CompiledTimetable timetable, Path customerRequestPath) throws IOException {
         java.util.concurrent.ConcurrentMap<String, OptimalTravelSchedule> result = new java.util.concurrent.ConcurrentHashMap<>();
+        SearchMetrics stats = metrics;
+        long started = stats == null ? 0 : System.nanoTime();
+        List<CustomerRequest> requests = readRequests(customerRequestPath);
+        if (stats != null) {
+            stats.recordParse(System.nanoTime() - started);
+            stats.recordRequests(requests.size());
+        }
+        solve(timetable, requests, result::put).join();
+        return result;
+    }
 
-        requests.parallelStream().forEach(req -> {
-            String reqId = req.requestId;
-            String criteria = req.criteria == null ? "Time" : req.criteria;
-
-            if (req.source.equals(req.destination)) {
-                result.put(reqId, new OptimalTravelSchedule(new ArrayList<>(), criteria, 0, "Not generated"));
-                return;
-            }
+    // solves against the version current when the call starts, whatever is applied meanwhile
+    public Map<String, OptimalTravelSchedule> getOptimalTravelOptions(LiveTimetable timetable, Path customerRequestPath) throws IOException {
+        return getOptimalTravelOptions(timetable.current(), customerRequestPath);
+    }
 
-            List<Integer> starts = departuresFrom.getOrDefault(req.source, new ArrayList<>());
+    /**
+     * Every journey worth taking from source to destination that departs between the two
+     * HH:mm times (a window ending before it starts runs past midnight), earliest departure
+     * first. Each arrives strictly earlier than any journey leaving later, so the first one
+     * leaving at or after a given minute is the fastest way to travel from then on. The whole
+     * window comes from one backward connection scan; summaries are not generated.
+     */
+    public List<OptimalTravelSchedule> getTravelProfile(CompiledTimetable timetable, String source, String destination,
+                                                        String earliestDeparture, String latestDeparture) {
+        long from = CompiledTimetable.clockMinutes(earliestDeparture);
+        long to = CompiledTimetable.clockMinutes(latestDeparture);
+        SearchMetrics stats = metrics;
+        long started = stats == null ? 0 : startSearch();
+        List<Journey> journeys = ConnectionScanEngine.profile(timetable, timetable.stationId(source), timetable.stationId(destination), from, to);
+        if (stats != null) endSearch(stats, started, "PROFILE", "Time", new CustomerRequest[0], 0);
+        List<OptimalTravelSchedule> out = new ArrayList<>(journeys.size());
+        for (Journey j : journeys) {
+            OptimalTravelSchedule schedule = new OptimalTravelSchedule(j.toRoutes(timetable), "Time", j.duration(), "Not generated");
+            schedule.setOptimal(true);
+            schedule.setGap(0);
+            out.add(schedule);
+        }
+        return out;
+    }
 
-            if (starts.isEmpty()) {
-                String summary = generateSummary ? "No routes available" : "Not generated";
-                result.put(reqId, new OptimalTravelSchedule(new ArrayList<>(), criteria, 0, summary));
-                return;
-            }
+    public void streamOptimalTravelOptions(CompiledTimetable timetable, Path customerRequestPath,
+                                           BiConsumer<String, OptimalTravelSchedule> consumer) throws IOException {
+        try (CustomerRequest.Reader requests = CustomerRequest.read(customerRequestPath)) {
+            streamOptimalTravelOptions(timetable, requests, consumer);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
 
-            Comparator<State> comp = getComparator(criteria);
-            PriorityQueue<State> pq = new PriorityQueue<>(comp);
-
-            for (int si : starts) {
-                ScheduleRecord s = idxToSchedule.get(si);
-                long dep = s.departure;
-                long arr = s.arrivalAdjusted();
-                java.util.BitSet used = new java.util.BitSet(schedules.size());
-                used.set(si);
-                State st = new State(si, si, dep, arr, s.cost, 1, null, used);
-                pq.add(st);
+    // Pulls at most maxInFlight requests at a time and hands each schedule to the consumer,
+    // on the calling thread, as soon as its batch is solved. A slow consumer holds back
+    // reading, so memory stays flat however long the request stream is.
+    public void streamOptimalTravelOptions(CompiledTimetable timetable, Iterator<CustomerRequest> requests,
+                                           BiConsumer<String, OptimalTravelSchedule> consumer) {
+        int window = maxInFlight;
+        while (requests.hasNext()) {
+            SearchMetrics stats = metrics;
+            long started = stats == null ? 0 : System.nanoTime();
+            List<CustomerRequest> chunk = new ArrayList<>(window);
+            while (chunk.size() < window && requests.hasNext()) chunk.add(requests.next());
+            if (stats != null) {
+                stats.recordParse(System.nanoTime() - started);
+                stats.recordRequests(chunk.size());
             }
 
-            State best = null;
-            java.util.Set<Long> visitedSignatures = new java.util.HashSet<>();
-            final int MAX_HOPS_LOCAL = 4; 
-            final int MAX_EXPANSIONS_LOCAL = 1000;
-
-            Map<Integer, List<long[]>> bestSignatures = new HashMap<>();
-            final int MAX_LABELS_PER_NODE_LOCAL = 1;
-
-
-            int expansions = 0;
-            while (!pq.isEmpty()) {
-                State cur = pq.poll();
-
-                if (++expansions > MAX_EXPANSIONS_LOCAL) break; 
-                if (best != null && comp.compare(cur, best) >= 0) break;
-                if (cur.hops > MAX_HOPS_LOCAL) continue;
-
-                ScheduleRecord lastRec = idxToSchedule.get(cur.lastIdx);
-                if (lastRec.destination.equals(req.destination)) {
-                    if (best == null || comp.compare(cur, best) < 0) {
-                        best = cur;
-                    }
-                    continue;
+            BlockingQueue<Map.Entry<String, OptimalTravelSchedule>> solved = new ArrayBlockingQueue<>(chunk.size());
+            CompletableFuture<Void> task = solve(timetable, chunk,
+                    (id, schedule) -> solved.add(new AbstractMap.SimpleImmutableEntry<>(id, schedule)));
+            try {
+                for (int delivered = 0; delivered < chunk.size(); delivered++) {
+                    Map.Entry<String, OptimalTravelSchedule> next = take(solved, task);
+                    consumer.accept(next.getKey(), next.getValue());
                 }
+                task.join();
+            } finally {
+                if (!task.isDone()) task.cancel(true);
+            }
+        }
+    }
 
-                List<Integer> nextList = departuresFrom.getOrDefault(lastRec.destination, new ArrayList<>());
-                for (int ni : nextList) {
-                    ScheduleRecord nextRec = idxToSchedule.get(ni);
-
-                    boolean already = cur.usedContains(ni);
-                    if (already) continue;
-
-                    long baseDep = nextRec.departure;
-                    long baseArr = nextRec.arrival;
-                    long candidateDep = baseDep;
-                    long prevArr = cur.arrivalAbs;
-                    if (candidateDep < (prevArr % 1440)) {
-                        long k = (prevArr - candidateDep + 1439) / 1440; 
-                        candidateDep = candidateDep + k * 1440;
-                    } else {
-                        long dayOffset = (prevArr / 1440) * 1440;
-                        candidateDep = candidateDep + dayOffset;
-                        if (candidateDep < prevArr) candidateDep += 1440;
-                    }
-
-                    long candidateArr = candidateDep + ((baseArr >= baseDep) ? (baseArr - baseDep) : (baseArr + 1440 - baseDep));
-                    java.util.BitSet nUsed = (java.util.BitSet) cur.usedIndices.clone();
-                    nUsed.set(ni);
-                    State nxt = new State(cur.startIdx, ni, cur.firstDepartureAbs, candidateArr, cur.totalCost + nextRec.cost, cur.hops + 1, cur, nUsed);
-
-                    long sig = (((long) ni) << 48) ^ (candidateArr & 0x0000FFFFFFFFFFFFL) ^ (((long) nxt.hops) << 40);
-                    if (visitedSignatures.contains(sig)) continue;
-
-                    long[] curSig = new long[] { candidateArr, nxt.totalCost, nxt.hops };
-                    List<long[]> list = bestSignatures.get(ni);
-                    if (isDominatedPrimitive(list, curSig)) continue;
+    // the caller keeps ownership of the service and closes it
+    public void setSummaryService(SummaryService summaries) {
+        this.summaries = java.util.Objects.requireNonNull(summaries);
+    }
 
-                    if (list == null) list = new ArrayList<>();
-                    List<long[]> keep = new ArrayList<>();
-                    for (long[] s : list) {
-                        if (!dominatesPrimitive(curSig, s)) keep.add(s);
-                    }
-                    keep.add(curSig);
-                    if (keep.size() > MAX_LABELS_PER_NODE_LOCAL) {
-                        int worstIdx = 0;
-                        for (int i = 1; i < keep.size(); i++) {
-                            if (compareSignaturesPrimitive(keep.get(i), keep.get(worstIdx), criteria) > 0) worstIdx = i;
-                        }
-                        keep.remove(worstIdx);
-                    }
-                    bestSignatures.put(ni, keep);
+    // null (the default) turns instrumentation off
+    public void setMetrics(SearchMetrics metrics) {
+        this.metrics = metrics;
+    }
 
-                    visitedSignatures.add(sig);
-                    pq.add(nxt);
-                }
-            }
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
 
-            if (best == null) {
-                String summary = generateSummary ? "No routes available" : "Not generated";
-                result.put(reqId, new OptimalTravelSchedule(new ArrayList<>(), criteria, 0, summary));
-            } else {
-                List<Route> routes = new ArrayList<>();
-                State cur = best;
-                while (cur != null) {
-                    if (cur.lastIdx >= 0) {
-                        ScheduleRecord sr = idxToSchedule.get(cur.lastIdx);
-                        if (sr != null) routes.add(0, sr.toRoute());
-                    }
-                    cur = cur.parent;
-                }
-                long primaryValue = computePrimaryValue(best, criteria);
-                String summary = generateSummary ? generateSummaryText(routes, criteria) : "Not generated";
-                result.put(reqId, new OptimalTravelSchedule(routes, criteria, primaryValue, summary));
-            }
-        });
+    private SummaryService summaryService() {
+        SummaryService s = summaries;
+        return s != null ? s : SummaryService.shared();
+    }
 
-        return result;
+    /**
+     * Covered pairs are answered from the patterns when the engine for the request is exact
+     * (never for LABEL_SETTING, whose heuristic answers can differ, nor for a bounded
+     * Pareto front) and the patterns were built for the timetable being queried.
+     */
+    public void setTransferPatterns(TransferPatterns transferPatterns) {
+        this.transferPatterns = transferPatterns;
     }
 
-    private Comparator<State> getComparator(String criteria) {
-        String c = criteria == null ? "time" : criteria.toLowerCase();
-        switch (c) {
-            case "cost":
-                return (a, b) -> {
-                    if (a.totalCost != b.totalCost) return Long.compare(a.totalCost, b.totalCost);
-                    long at = a.arrivalAbs - a.firstDepartureAbs;
-                    long bt = b.arrivalAbs - b.firstDepartureAbs;
-                    if (at != bt) return Long.compare(at, bt);
-                    return Integer.compare(a.hops, b.hops);
-                };
-            case "hops":
-                return (a, b) -> {
-                    if (a.hops != b.hops) return Integer.compare(a.hops, b.hops);
-                    long at = a.arrivalAbs - a.firstDepartureAbs;
-                    long bt = b.arrivalAbs - b.firstDepartureAbs;
-                    if (at != bt) return Long.compare(at, bt);
-                    return Long.compare(a.totalCost, b.totalCost);
-                };
-            default:
-                return (a, b) -> {
-                    long at = a.arrivalAbs - a.firstDepartureAbs;
-                    long bt = b.arrivalAbs - b.firstDepartureAbs;
-                    if (at != bt) return Long.compare(at, bt);
-                    if (a.totalCost != b.totalCost) return Long.compare(a.totalCost, b.totalCost);
-                    return Integer.compare(a.hops, b.hops);
-                };
-        }
+    // lower-bound pruning in the Pareto engine; answers are the same either way
+    public void setGoalDirected(boolean goalDirected) {
+        this.goalDirected = goalDirected;
     }
 
-    private long computePrimaryValue(State s, String criteria) {
-        String c = criteria == null ? "time" : criteria.toLowerCase();
-        switch (c) {
-            case "cost":
-                return s.totalCost;
-            case "hops":
-                return s.hops;
-            default:
-                return s.arrivalAbs - s.firstDepartureAbs;
-        }
+    public void setSolverExecutor(SolverExecutor solverExecutor) {
+        this.solverExecutor = java.util.Objects.requireNonNull(solverExecutor);
     }
 
-    private String generateSummaryText(List<Route> path, String criteria) {
-        String apiKey = System.getenv("HF_API_KEY");
-        String prompt = buildPromptFromPath(path, criteria);
-        if (apiKey == null || apiKey.isEmpty()) {
-            long duration = 0;
-            if (path != null && !path.isEmpty()) {
-                try {
-                    long start = parseTime(path.get(0).getDepartureTime());
-                    long end = parseTime(path.get(path.size()-1).getArrivalTime());
-                    duration = end >= start ? (end - start) : (end + 1440 - start);
-                } catch (Exception ex) { duration = 0; }
-            }
-            return "Total travel time " + duration + " minutes. Optimal by " + criteria + ".";
-        }
+    public void setMaxInFlightRequests(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
 
-        try {
-            String json = "{\"inputs\":\"" + prompt.replace("\"", "\\\"").replace("\n", "\\n") + "\",\"options\":{\"wait_for_model\":true}}";
-            URL url = new URL("https://api-inference.huggingface.co/models/facebook/bart-large-cnn");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            try {
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("Authorization", "Bearer " + apiKey);
-                conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-                conn.setDoOutput(true);
-                try (OutputStream os = conn.getOutputStream(); OutputStreamWriter osw = new OutputStreamWriter(os, StandardCharsets.UTF_8)) {
-                    osw.write(json);
-                    osw.flush();
-                }
+    public void setDefaultEngine(String criteria, SearchEngine engine) {
+        String key = criteria == null ? "time" : criteria.toLowerCase();
+        if (engine == null) defaultEngines.remove(key);
+        else defaultEngines.put(key, engine);
+    }
 
-                int code = conn.getResponseCode();
-                if (code == 200) {
-                    StringBuilder sb = new StringBuilder();
-                    try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-                        String line;
-                        while ((line = br.readLine()) != null) sb.append(line).append('\n');
-                    }
-                    String text = sb.toString();
-                    String summary = extractSummaryFromResponse(text);
-                    if (summary != null && !summary.isEmpty()) return summary.length() > 300 ? summary.substring(0, 300) : summary;
-                    return text.length() > 300 ? text.substring(0, 300) : text;
-                }
-            } finally {
-                conn.disconnect();
-            }
-        } catch (Exception ex) {
-            // ignore and fallback
-        }
-        long duration = 0;
-        if (path != null && !path.isEmpty()) {
-            try {
-                long start = parseTime(path.get(0).getDepartureTime());
-                long end = parseTime(path.get(path.size()-1).getArrivalTime());
-                duration = end >= start ? (end - start) : (end + 1440 - start);
-            } catch (Exception ex) { duration = 0; }
-        }
-        return "Total travel time " + duration + " minutes. Optimal by " + criteria + ".";
+    public void setParetoFrontLimit(int paretoFrontLimit) {
+        this.paretoFrontLimit = Math.max(ParetoEngine.UNBOUNDED, paretoFrontLimit);
+        QueryCache cache = queryCache;
+        if (cache != null) cache.clear();
     }
 
-    private String buildPromptFromPath(List<Route> path, String criteria) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("You are a travel assistant. Provide a one-sentence (<=60 words) summary for this itinerary. Criteria: ").append(criteria).append(".\n");
-        sb.append("Legs:\n");
-        if (path != null) {
-            for (Route r : path) {
-                sb.append(r.getSource()).append("->").append(r.getDestination()).append(" (")
-                        .append(r.getDepartureTime()).append("-").append(r.getArrivalTime()).append(")\n");
-            }
-        }
-        return sb.toString();
+    // null disables caching
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
     }
 
-    private List<ScheduleRecord> readSchedules(Path p) throws IOException {
-        List<String> lines = Files.readAllLines(p);
-        List<ScheduleRecord> out = new ArrayList<>();
-        for (int i = 1; i < lines.size(); i++) {
-            String ln = lines.get(i).trim();
-            if (ln.isEmpty()) continue;
-            String[] parts = ln.split(",");
-            if (parts.length < 6) continue;
-            String src = parts[0];
-            String dst = parts[1];
-            String mode = parts[2];
-            String dep = parts[3];
-            String arr = parts[4];
-            long cost;
-            try { cost = Long.parseLong(parts[5]); } catch (Exception ex) { cost = 0L; }
-            out.add(new ScheduleRecord(src, dst, mode, dep, arr, cost));
-        }
-        return out;
+    public QueryCache getQueryCache() {
+        return queryCache;
     }
 
-    private List<CustomerRequest> readRequests(Path p) throws IOException {
-        List<String> lines = Files.readAllLines(p);
-        List<CustomerRequest> out = new ArrayList<>();
-        for (int i = 1; i < lines.size(); i++) {
-            String ln = lines.get(i).trim();
-            if (ln.isEmpty()) continue;
-            String[] parts = ln.split(",");
-            if (parts.length < 5) continue;
-            out.add(new CustomerRequest(parts[0], parts[1], parts[2], parts[3], parts[4]));
+    public List<OptimalTravelSchedule> getParetoOptions(CompiledTimetable timetable, String source, String destination, String criteria) {
+        String c = criteria == null ? "Time" : criteria;
+        List<Journey> front = ParetoEngine.paretoSet(timetable, timetable.stationId(source), timetable.stationId(destination), paretoFrontLimit);
+        front.sort(ParetoEngine.comparator(c));
+        List<OptimalTravelSchedule> out = new ArrayList<>(front.size());
+        for (Journey j : front) {
+            List<Route> routes = j.toRoutes(timetable);
+            String summary = generateSummary ? summaryService().summarize(routes, c).join() : "Not generated";
+            OptimalTravelSchedule schedule = new OptimalTravelSchedule(routes, c, j.primaryValue(c), summary);
+            // every option is on the exact front unless the front was capped
+            schedule.setOptimal(paretoFrontLimit == ParetoEngine.UNBOUNDED);
+            schedule.setGap(schedule.optimal ? 0 : Journey.UNKNOWN_GAP);
+            out.add(schedule);
         }
         return out;
     }
 
-    static class ScheduleRecord {
-        String source;
-        String destination;
-        String mode;
-        String departureTime;
-        String arrivalTime;
-        long departure; 
-        long arrival;
-        long cost;
-
-        ScheduleRecord(String s, String d, String m, String dep, String arr, long cost) {
-            this.source = s; this.destination = d; this.mode = m; this.departureTime = dep; this.arrivalTime = arr; this.cost = cost;
-            this.departure = parseTime(dep);
-            this.arrival = parseTime(arr);
-        }
-
-        long arrivalAdjusted() {
-            if (arrival >= departure) return arrival;
-            return arrival + 1440;
+    // searches are queued on the solver executor and this returns at once; with summaries on,
+    // each schedule is emitted once its summary arrives. The future completes after the last emit.
+    private CompletableFuture<Void> solve(CompiledTimetable timetable, List<CustomerRequest> requests, BiConsumer<String, OptimalTravelSchedule> emit) {
+        SummaryService summaryService = generateSummary ? summaryService() : null;
+        SolverExecutor pool = solverExecutor;
+        java.util.Queue<CompletableFuture<Void>> summarized = new java.util.concurrent.ConcurrentLinkedQueue<>();
+        List<List<CustomerRequest>> batches = new ArrayList<>();
+        Map<String, List<CustomerRequest>> shared = new java.util.LinkedHashMap<>();
+        for (CustomerRequest req : requests) {
+            String criteria = req.criteria == null ? "Time" : req.criteria;
+            if (req.source.equals(req.destination)) {
+                OptimalTravelSchedule stay = new OptimalTravelSchedule(new ArrayList<>(), criteria, 0, "Not generated");
+                stay.setOptimal(true);
+                stay.setGap(0);
+                emit.accept(req.requestId, stay);
+                continue;
+            }
+            String key = batchKey(engineFor(req, criteria), criteria, req);
+            if (key == null) {
+                List<CustomerRequest> alone = new ArrayList<>(1);
+                alone.add(req);
+                batches.add(alone);
+            } else {
+                shared.computeIfAbsent(key, k -> new ArrayList<>()).add(req);
+            }
         }
-
-        Route toRoute() {
-            return new Route(source, destination, mode, departureTime, arrivalTime);
+        // single searches from one station run back to back, so its legs stay in cache
+        batches.sort((a, b) -> {
+            int c = a.get(0).source.compareTo(b.get(0).source);
+            return c != 0 ? c : a.get(0).destination.compareTo(b.get(0).destination);
+        });
+        batches.addAll(shared.values());
+
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        int chunkSize = pool.getChunkSize();
+        for (int from = 0; from < batches.size(); ) {
+            int to = from;
+            int size = 0;
+            while (to < batches.size() && (to == from || size + batches.get(to).size() <= chunkSize)) size += batches.get(to++).size();
+            List<List<CustomerRequest>> unit = batches.subList(from, to);
+            tasks.add(CompletableFuture.runAsync(() -> {
+                for (List<CustomerRequest> batch : unit) solveAndEmit(timetable, batch, emit, summaryService, summarized);
+            }, pool.executor()));
+            from = to;
         }
+        return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(done -> CompletableFuture.allOf(summarized.toArray(new CompletableFuture<?>[0])));
     }
 
-    static class CustomerRequest {
-        String requestId;
-        String customerName;
-        String source;
-        String destination;
-        String criteria;
-
-        CustomerRequest(String id, String name, String s, String d, String c) {
-            this.requestId = id;
-            this.customerName = name;
-            this.source = s;
-            this.destination = d;
-            this.criteria = c;
+    private void solveAndEmit(CompiledTimetable timetable, List<CustomerRequest> batch, BiConsumer<String, OptimalTravelSchedule> emit,
+                              SummaryService summaryService, java.util.Queue<CompletableFuture<Void>> summarized) {
+        Journey[] found = solveBatch(timetable, batch);
+        for (int i = 0; i < batch.size(); i++) {
+            CustomerRequest req = batch.get(i);
+            String criteria = req.criteria == null ? "Time" : req.criteria;
+            Journey best = found[i];
+            if (best == null || best.hops == 0) {
+                String summary = generateSummary ? "No routes available" : "Not generated";
+                OptimalTravelSchedule none = new OptimalTravelSchedule(new ArrayList<>(), criteria, 0, summary);
+                // no route is proven only by an exact search that ran to the end
+                SearchEngine engine = engineFor(req, criteria);
+                none.setOptimal(best == null && engine != SearchEngine.LABEL_SETTING
+                        && (engine != SearchEngine.PARETO || paretoFrontLimit == ParetoEngine.UNBOUNDED));
+                none.setGap(none.optimal ? 0 : Journey.UNKNOWN_GAP);
+                emit.accept(req.requestId, none);
+            } else {
+                List<Route> routes = best.toRoutes(timetable);
+                long value = best.primaryValue(criteria);
+                // alternatives go without summaries
+                List<OptimalTravelSchedule> alternatives = new ArrayList<>(best.alternatives.size());
+                for (Journey alt : best.alternatives) {
+                    alternatives.add(new OptimalTravelSchedule(alt.toRoutes(timetable), criteria, alt.primaryValue(criteria), "Not generated"));
+                }
+                if (generateSummary) {
+                    SearchMetrics stats = metrics;
+                    long requested = stats == null ? 0 : System.nanoTime();
+                    summarized.add(summaryService.summarize(routes, criteria).thenAccept(summary -> {
+                        if (stats != null) stats.recordSummary(System.nanoTime() - requested);
+                        OptimalTravelSchedule schedule = new OptimalTravelSchedule(routes, criteria, value, summary);
+                        schedule.setAlternatives(alternatives);
+                        schedule.setOptimal(best.gap == 0);
+                        schedule.setGap(best.gap);
+                        emit.accept(req.requestId, schedule);
+                    }));
+                } else {
+                    OptimalTravelSchedule schedule = new OptimalTravelSchedule(routes, criteria, value, "Not generated");
+                    schedule.setAlternatives(alternatives);
+                    schedule.setOptimal(best.gap == 0);
+                    schedule.setGap(best.gap);
+                    emit.accept(req.requestId, schedule);
+                }
+            }
         }
     }
 
-    static class State {
-        int startIdx;
-        int lastIdx;
-        long firstDepartureAbs;
-        long arrivalAbs;
-        long totalCost;
-    int hops;
-    State parent;
-    java.util.BitSet usedIndices;
-
-        State(int startIdx, int lastIdx, long firstDepartureAbs, long arrivalAbs, long totalCost, int hops, State parent, java.util.BitSet usedIndices) {
-            this.startIdx = startIdx; this.lastIdx = lastIdx; this.firstDepartureAbs = firstDepartureAbs; this.arrivalAbs = arrivalAbs; this.totalCost = totalCost; this.hops = hops; this.parent = parent; this.usedIndices = usedIndices;
-        }
+    private static long startSearch() {
+        SearchCounters.current().reset();
+        return System.nanoTime();
+    }
 
-        boolean usedContains(int idx) {
-            return usedIndices.get(idx);
-        }
+    private static void endSearch(SearchMetrics stats, long started, String engine, String criteria, CustomerRequest[] answered, int count) {
+        long elapsed = System.nanoTime() - started;
+        stats.recordSearch(elapsed, SearchCounters.current(), engine, criteria, answered, count);
     }
 
-    private static boolean isDominatedPrimitive(List<long[]> list, long[] s) {
-        if (list == null) return false;
-        for (long[] e : list) {
-            if (e[0] <= s[0] && e[1] <= s[1] && e[2] <= s[2]) return true;
+    private static <T> T take(BlockingQueue<T> queue, CompletableFuture<?> producer) {
+        try {
+            while (true) {
+                T next = queue.poll(50, TimeUnit.MILLISECONDS);
+                if (next != null) return next;
+                if (producer.isDone()) {
+                    producer.join();
+                    next = queue.poll();
+                    if (next != null) return next;
+                    throw new IllegalStateException("Search finished without answering every request");
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for results", ex);
         }
-        return false;
     }
 
-    private static boolean dominatesPrimitive(long[] a, long[] b) {
-        boolean noWorse = a[0] <= b[0] && a[1] <= b[1] && a[2] <= b[2];
-        boolean strictlyBetter = a[0] < b[0] || a[1] < b[1] || a[2] < b[2];
-        return noWorse && strictlyBetter;
+    private SearchEngine engineFor(CustomerRequest req, String criteria) {
+        if (req.budget != null) return SearchEngine.ANYTIME;
+        SearchEngine engine = req.engine;
+        if (engine == null) engine = defaultEngines.get(criteria.toLowerCase());
+        if (engine == null || !engine.supports(criteria)) engine = SearchEngine.LABEL_SETTING;
+        return engine;
     }
 
-    private static int compareSignaturesPrimitive(long[] a, long[] b, String criteria) {
-        String c = criteria == null ? "time" : criteria.toLowerCase();
-        switch (c) {
-            case "cost":
-                if (a[1] != b[1]) return Long.compare(a[1], b[1]);
-                if (a[0] != b[0]) return Long.compare(a[0], b[0]);
-                return Long.compare(a[2], b[2]);
-            case "hops":
-                if (a[2] != b[2]) return Long.compare(a[2], b[2]);
-                if (a[0] != b[0]) return Long.compare(a[0], b[0]);
-                return Long.compare(a[1], b[1]);
+    // requests that one search can answer together share a key: the backward connection scan
+    // fans out over sources for a fixed destination, the forward engines over destinations
+    private String batchKey(SearchEngine engine, String criteria, CustomerRequest req) {
+        switch (engine) {
+            case CONNECTION_SCAN:
+                return engine + "|" + criteria.toLowerCase() + "|" + req.destination;
+            case PARETO:
+                // one goal-directed search per target beats a shared undirected one
+                if (goalDirected && paretoFrontLimit == ParetoEngine.UNBOUNDED) return null;
+                return engine + "|" + criteria.toLowerCase() + "|" + req.source;
+            case ROUND_BASED:
+                return engine + "|" + criteria.toLowerCase() + "|" + req.source;
             default:
-                if (a[0] != b[0]) return Long.compare(a[0], b[0]);
-                if (a[1] != b[1]) return Long.compare(a[1], b[1]);
-                return Long.compare(a[2], b[2]);
+                return null;
         }
     }
 
-    private static long parseTime(String t) {
-        try {
-            String[] p = t.split(":");
-            int hh = Integer.parseInt(p[0]);
-            int mm = Integer.parseInt(p[1]);
-            return hh * 60L + mm;
-        } catch (Exception ex) { return 0; }
+    // answers, with the alternatives each request asked for attached; the connection scan lists
+    // them from its own labels, anything answered elsewhere (the cache, patterns, other
+    // engines) has them found from labels of its own
+    private Journey[] solveBatch(CompiledTimetable timetable, List<CustomerRequest> batch) {
+        List<List<Journey>> shared = new ArrayList<>(java.util.Collections.nCopies(batch.size(), null));
+        Journey[] found = solveBest(timetable, batch, shared);
+        CustomerRequest first = batch.get(0);
+        String criteria = first.criteria == null ? "Time" : first.criteria;
+        SearchMetrics stats = metrics;
+        for (int i = 0; i < batch.size(); i++) {
+            CustomerRequest req = batch.get(i);
+            if (req.alternatives == 0 || found[i] == null || found[i].hops == 0) continue;
+            List<Journey> more = shared.get(i);
+            if (more == null) {
+                long started = stats == null ? 0 : startSearch();
+                more = Alternatives.find(timetable, timetable.stationId(req.source), timetable.stationId(req.destination), criteria,
+                        found[i], req.alternatives);
+                if (stats != null) endSearch(stats, started, "ALTERNATIVES", criteria, new CustomerRequest[] { req }, 1);
+            }
+            found[i] = found[i].withAlternatives(more);
+        }
+        return found;
     }
 
-    private static String extractSummaryFromResponse(String respBody) {
-        if (respBody == null || respBody.isEmpty()) return null;
-        String lower = respBody;
-        int idx = lower.indexOf("\"summary_text\"");
-        if (idx >= 0) {
-            int colon = lower.indexOf(':', idx);
-            if (colon >= 0) {
-                int firstQuote = lower.indexOf('"', colon);
-                if (firstQuote >= 0) {
-                    int secondQuote = lower.indexOf('"', firstQuote + 1);
-                    if (secondQuote > firstQuote) {
-                        return unescapeJsonString(lower.substring(firstQuote + 1, secondQuote));
-                    }
+    private Journey[] solveBest(CompiledTimetable timetable, List<CustomerRequest> batch, List<List<Journey>> alternatives) {
+        CustomerRequest first = batch.get(0);
+        String criteria = first.criteria == null ? "Time" : first.criteria;
+        SearchEngine engine = engineFor(first, criteria);
+        QueryCache cache = queryCache;
+
+        Journey[] found = new Journey[batch.size()];
+        long[] keys = new long[batch.size()];
+        int[] pending = new int[batch.size()];
+        int misses = 0;
+        int hits = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            int source = timetable.stationId(batch.get(i).source);
+            int target = timetable.stationId(batch.get(i).destination);
+            if (source < 0 || target < 0) continue;
+            if (cache != null) {
+                keys[i] = QueryCache.key(source, target, criteria, engine);
+                Journey hit = cache.get(timetable, keys[i]);
+                if (hit != null) {
+                    found[i] = hit == QueryCache.NO_ROUTE ? null : hit;
+                    hits++;
+                    continue;
                 }
             }
+            pending[misses++] = i;
         }
-        idx = lower.indexOf("\"generated_text\"");
-        if (idx >= 0) {
-            int colon = lower.indexOf(':', idx);
-            if (colon >= 0) {
-                int firstQuote = lower.indexOf('"', colon);
-                if (firstQuote >= 0) {
-                    int secondQuote = lower.indexOf('"', firstQuote + 1);
-                    if (secondQuote > firstQuote) {
-                        return unescapeJsonString(lower.substring(firstQuote + 1, secondQuote));
-                    }
+        SearchMetrics stats = metrics;
+        if (stats != null && hits > 0) stats.recordCacheHits(hits);
+        if (misses == 0) return found;
+
+        TransferPatterns patterns = transferPatterns;
+        if (patterns != null && patterns.isFor(timetable) && engine != SearchEngine.LABEL_SETTING
+                && (engine != SearchEngine.PARETO || paretoFrontLimit == ParetoEngine.UNBOUNDED)) {
+            int left = 0;
+            for (int m = 0; m < misses; m++) {
+                int i = pending[m];
+                int source = timetable.stationId(batch.get(i).source);
+                int target = timetable.stationId(batch.get(i).destination);
+                if (!patterns.covers(source, target)) {
+                    pending[left++] = i;
+                    continue;
                 }
+                long started = stats == null ? 0 : startSearch();
+                found[i] = patterns.best(source, target, criteria);
+                if (stats != null) endSearch(stats, started, "TRANSFER_PATTERNS", criteria, new CustomerRequest[] { batch.get(i) }, 1);
+                if (cache != null) cache.put(timetable, keys[i], found[i]);
             }
+            misses = left;
+            if (misses == 0) return found;
+        }
+
+        int[] sources = new int[misses];
+        int[] targets = new int[misses];
+        for (int m = 0; m < misses; m++) {
+            sources[m] = timetable.stationId(batch.get(pending[m]).source);
+            targets[m] = timetable.stationId(batch.get(pending[m]).destination);
         }
-        String trimmed = respBody.trim();
-        if (trimmed.startsWith("[")) trimmed = trimmed.substring(1);
-        if (trimmed.endsWith("]")) trimmed = trimmed.substring(0, trimmed.length()-1);
-        if (trimmed.startsWith("{")) trimmed = trimmed.substring(1);
-        if (trimmed.endsWith("}")) trimmed = trimmed.substring(0, trimmed.length()-1);
-        trimmed = trimmed.replaceAll("\\\\n", " ").replaceAll("\\\\r", " ");
-        return !trimmed.isEmpty() ? trimmed : null;
+        Journey[] solved;
+        if (engine == SearchEngine.LABEL_SETTING || engine == SearchEngine.BIDIRECTIONAL || engine == SearchEngine.ANYTIME) {
+            solved = new Journey[misses];
+            for (int m = 0; m < misses; m++) {
+                long started = stats == null ? 0 : startSearch();
+                CustomerRequest req = batch.get(pending[m]);
+                switch (engine) {
+                    case BIDIRECTIONAL:
+                        solved[m] = BidirectionalEngine.search(timetable, sources[m], targets[m], criteria);
+                        break;
+                    case ANYTIME:
+                        SearchBudget budget = req.budget == null ? SearchBudget.UNLIMITED : req.budget;
+                        solved[m] = AnytimeEngine.search(timetable, sources[m], targets[m], criteria, budget);
+                        break;
+                    default:
+                        solved[m] = LabelSettingEngine.search(timetable, sources[m], targets[m], criteria);
+                }
+                if (stats != null) endSearch(stats, started, engine.name(), criteria, new CustomerRequest[] { batch.get(pending[m]) }, 1);
+            }
+        } else {
+            long started = stats == null ? 0 : startSearch();
+            switch (engine) {
+                case CONNECTION_SCAN:
+                    int[] wanted = new int[misses];
+                    boolean any = false;
+                    for (int m = 0; m < misses; m++) {
+                        wanted[m] = batch.get(pending[m]).alternatives;
+                        any |= wanted[m] > 0;
+                    }
+                    if (!any) {
+                        solved = ConnectionScanEngine.fastestTo(timetable, sources, targets[0]);
+                        break;
+                    }
+                    solved = new Journey[misses];
+                    List<List<Journey>> listed = ConnectionScanEngine.alternativesTo(timetable, sources, targets[0], wanted, solved);
+                    for (int m = 0; m < misses; m++) {
+                        if (wanted[m] > 0) alternatives.set(pending[m], listed.get(m));
+                    }
+                    break;
+                case ROUND_BASED:
+                    solved = RoundBasedEngine.fewestHopsFrom(timetable, sources[0], targets);
+                    break;
+                default:
+                    solved = ParetoEngine.bestFrom(timetable, sources[0], targets, criteria, paretoFrontLimit, goalDirected);
+            }
+            if (stats != null) {
+                CustomerRequest[] answered = new CustomerRequest[misses];
+                for (int m = 0; m < misses; m++) answered[m] = batch.get(pending[m]);
+                endSearch(stats, started, engine.name(), criteria, answered, misses);
+            }
+        }
+        // the heuristic engines prove nothing, and an anytime answer cut short only holds for its budget
+        boolean proves = engine != SearchEngine.LABEL_SETTING && (engine != SearchEngine.PARETO || paretoFrontLimit == ParetoEngine.UNBOUNDED);
+        for (int m = 0; m < misses; m++) {
+            if (!proves && solved[m] != null) solved[m] = solved[m].withGap(Journey.UNKNOWN_GAP);
+            found[pending[m]] = solved[m];
+            if (cache != null && (solved[m] == null || solved[m].gap == 0 || engine != SearchEngine.ANYTIME)) {
+                cache.put(timetable, keys[pending[m]], solved[m]);
+            }
+        }
+        return found;
     }
 
-    private static String unescapeJsonString(String s) {
-        return s.replaceAll("\\\\\"", "\"")
-                .replaceAll("\\\\n", " ")
-                .replaceAll("\\\\r", " ")
-                .replaceAll("\\\\t", " ");
+    private List<CustomerRequest> readRequests(Path p) throws IOException {
+        List<CustomerRequest> out = new ArrayList<>();
+        try (CustomerRequest.Reader in = CustomerRequest.read(p)) {
+            while (in.hasNext()) out.add(in.next());
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return out;
     }
 }
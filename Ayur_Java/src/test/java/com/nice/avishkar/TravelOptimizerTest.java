@@ -4,12 +4,31 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.MockitoAnnotations;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TravelOptimizerTest {
 
@@ -188,6 +207,1185 @@ public class TravelOptimizerTest {
 
     }
 
+    @Test
+    public void testCompiledTimetableReuse() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-3/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-3/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+
+        Map<String, OptimalTravelSchedule> first = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        Map<String, OptimalTravelSchedule> second = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+
+        Assert.assertEquals(252, timetable.size());
+        Assert.assertEquals(first.size(), second.size());
+        Assert.assertEquals(270, second.get("24").getValue());
+        Assert.assertEquals(540, second.get("13").getValue());
+        Assert.assertEquals(first.get("18").getValue(), second.get("18").getValue());
+    }
+
+    @Test
+    public void testConnectionScanForTime() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-4/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-4/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl labelSetting = new TravelOptimizerImpl(generateSummary);
+        TravelOptimizerImpl connectionScan = new TravelOptimizerImpl(generateSummary);
+        connectionScan.setDefaultEngine("Time", SearchEngine.CONNECTION_SCAN);
+
+        Map<String, OptimalTravelSchedule> expected = labelSetting.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        Map<String, OptimalTravelSchedule> result = connectionScan.getOptimalTravelOptions(timetable, customerRequestFilePath);
+
+        Assert.assertEquals(expected.size(), result.size());
+        for (Map.Entry<String, OptimalTravelSchedule> e : expected.entrySet()) {
+            OptimalTravelSchedule schedule = result.get(e.getKey());
+            if (!"time".equalsIgnoreCase(schedule.getCriteria())) {
+                Assert.assertEquals(e.getValue().getValue(), schedule.getValue());
+                continue;
+            }
+            if (e.getValue().getRoutes().isEmpty()) continue;
+            Assert.assertFalse(schedule.getRoutes().isEmpty());
+            Assert.assertTrue(schedule.getValue() <= e.getValue().getValue());
+        }
+    }
+
+    @Test
+    public void testRoundBasedForHops() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-4/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-4/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl labelSetting = new TravelOptimizerImpl(generateSummary);
+        TravelOptimizerImpl roundBased = new TravelOptimizerImpl(generateSummary);
+        roundBased.setDefaultEngine("Hops", SearchEngine.ROUND_BASED);
+
+        Map<String, OptimalTravelSchedule> expected = labelSetting.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        Map<String, OptimalTravelSchedule> result = roundBased.getOptimalTravelOptions(timetable, customerRequestFilePath);
+
+        Assert.assertEquals(1, result.get("800").getValue());
+        Assert.assertEquals("hops", result.get("800").getCriteria().toLowerCase());
+        for (Map.Entry<String, OptimalTravelSchedule> e : expected.entrySet()) {
+            OptimalTravelSchedule schedule = result.get(e.getKey());
+            Assert.assertEquals(e.getValue().getValue(), schedule.getValue());
+            if ("hops".equalsIgnoreCase(schedule.getCriteria())) {
+                Assert.assertEquals(schedule.getValue(), schedule.getRoutes().size());
+            }
+        }
+    }
+
+    @Test
+    public void testRoundBasedKeepsCheaperLaterArrival() throws IOException {
+
+        // the 10:30 arrival at V is later but cheaper and still makes the 11:00 leg
+        Path schedules = Files.createTempFile("schedules", ".csv");
+        try {
+            Files.write(schedules, Arrays.asList("Source,Destination,Mode,DepartureTime,ArrivalTime,Cost",
+                    "S,V,Train,09:00,10:00,100",
+                    "S,V,Bus,09:00,10:30,10",
+                    "V,T,Train,11:00,12:00,1"));
+            CompiledTimetable timetable = CompiledTimetable.compile(schedules);
+            int source = timetable.stationId("S");
+            int target = timetable.stationId("T");
+
+            Journey pareto = ParetoEngine.best(timetable, source, target, "Hops", ParetoEngine.UNBOUNDED);
+            Journey rounds = RoundBasedEngine.fewestHops(timetable, source, target);
+            Journey bidirectional = BidirectionalEngine.search(timetable, source, target, "Hops");
+            Assert.assertEquals(11, pareto.cost);
+            for (Journey j : new Journey[] { rounds, bidirectional }) {
+                Assert.assertEquals(2, j.hops);
+                Assert.assertEquals(180, j.arrival - j.departure);
+                Assert.assertEquals(11, j.cost);
+            }
+        } finally {
+            Files.delete(schedules);
+        }
+    }
+
+    @Test
+    public void testParetoEngine() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-3/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-3/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl labelSetting = new TravelOptimizerImpl(generateSummary);
+        TravelOptimizerImpl pareto = new TravelOptimizerImpl(generateSummary);
+        pareto.setDefaultEngine("Time", SearchEngine.PARETO);
+        pareto.setDefaultEngine("Cost", SearchEngine.PARETO);
+        pareto.setDefaultEngine("Hops", SearchEngine.PARETO);
+
+        Map<String, OptimalTravelSchedule> expected = labelSetting.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        Map<String, OptimalTravelSchedule> result = pareto.getOptimalTravelOptions(timetable, customerRequestFilePath);
+
+        Assert.assertEquals(270, result.get("24").getValue());
+        Assert.assertEquals(1, result.get("7").getValue());
+        for (Map.Entry<String, OptimalTravelSchedule> e : expected.entrySet()) {
+            if (e.getValue().getRoutes().isEmpty()) continue;
+            Assert.assertTrue(result.get(e.getKey()).getValue() <= e.getValue().getValue());
+        }
+
+        java.util.List<OptimalTravelSchedule> front = pareto.getParetoOptions(timetable, "CACE5F", "7B1858", "Cost");
+        Assert.assertFalse(front.isEmpty());
+        for (int i = 1; i < front.size(); i++) {
+            Assert.assertTrue(front.get(i - 1).getValue() <= front.get(i).getValue());
+        }
+    }
+
+    @Test
+    public void testBatchedSearchMatchesSingleSearch() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-4/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-4/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+        analyzer.setDefaultEngine("Time", SearchEngine.CONNECTION_SCAN);
+        analyzer.setDefaultEngine("Cost", SearchEngine.PARETO);
+        analyzer.setDefaultEngine("Hops", SearchEngine.ROUND_BASED);
+
+        Map<String, OptimalTravelSchedule> result = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+
+        for (String line : Files.readAllLines(customerRequestFilePath).subList(1, 1001)) {
+            String[] parts = line.trim().split(",");
+            int source = timetable.stationId(parts[2]);
+            int destination = timetable.stationId(parts[3]);
+            Journey single;
+            switch (parts[4].toLowerCase()) {
+                case "time":
+                    single = ConnectionScanEngine.fastest(timetable, source, destination);
+                    break;
+                case "hops":
+                    single = RoundBasedEngine.fewestHops(timetable, source, destination);
+                    break;
+                default:
+                    single = ParetoEngine.best(timetable, source, destination, parts[4], ParetoEngine.UNBOUNDED);
+            }
+            OptimalTravelSchedule batched = result.get(parts[0]);
+            Assert.assertEquals(single == null, batched.getRoutes().isEmpty());
+            if (single != null) Assert.assertEquals(single.primaryValue(parts[4]), batched.getValue());
+        }
+    }
+
+    @Test
+    public void testQueryCache() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-3/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-3/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+        QueryCache cache = analyzer.getQueryCache();
+
+        Map<String, OptimalTravelSchedule> first = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        // repeated requests in the file already hit within a single run
+        long warm = cache.getHits();
+        Assert.assertTrue(cache.size() > 0);
+
+        Map<String, OptimalTravelSchedule> second = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        Assert.assertEquals(2 * warm + cache.getMisses(), cache.getHits());
+        for (Map.Entry<String, OptimalTravelSchedule> e : first.entrySet()) {
+            Assert.assertEquals(e.getValue().getValue(), second.get(e.getKey()).getValue());
+            Assert.assertEquals(e.getValue().getRoutes().size(), second.get(e.getKey()).getRoutes().size());
+        }
+
+        // a reloaded timetable must not be served from the old entries
+        long hits = cache.getHits();
+        analyzer.getOptimalTravelOptions(CompiledTimetable.compile(schedulesFilePath), customerRequestFilePath);
+        Assert.assertEquals(hits + warm, cache.getHits());
+
+        // going back to the first timetable finds its entries still there
+        long misses = cache.getMisses();
+        analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        Assert.assertEquals(misses, cache.getMisses());
+
+        QueryCache tiny = new QueryCache(2, QueryCache.DEFAULT_MAX_BYTES);
+        analyzer.setQueryCache(tiny);
+        analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        Assert.assertTrue(tiny.size() <= 2);
+    }
+
+    @Test
+    public void testQueryCacheReleasesReplacedTimetables() throws Exception {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-3/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-3/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+        QueryCache cache = analyzer.getQueryCache();
+        analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        int entries = cache.size();
+
+        CompiledTimetable replaced = CompiledTimetable.compile(schedulesFilePath);
+        analyzer.getOptimalTravelOptions(replaced, customerRequestFilePath);
+        Assert.assertEquals(2 * entries, cache.size());
+
+        // the cache alone must not keep a timetable alive, and drops its entries once it is gone
+        WeakReference<CompiledTimetable> ref = new WeakReference<>(replaced);
+        replaced = null;
+        for (int i = 0; i < 100 && (ref.get() != null || cache.size() > entries); i++) {
+            System.gc();
+            Thread.sleep(10);
+            analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        }
+        Assert.assertNull(ref.get());
+        Assert.assertEquals(entries, cache.size());
+    }
+
+    @Test
+    public void testCsvScannerAcrossWindows() throws IOException {
+
+        Path file = Files.createTempFile("schedules", ".csv");
+        try {
+            String csv = "Source,Destination,Mode,DepartureTime,ArrivalTime,Cost\r\n"
+                    + "A,B,Bus,09:05,10:00,12\r\n\r\n"
+                    + "  C,D,Train,23:30,00:15,x\n\n"
+                    + "E,F,Flight,1:02,3:4,5,,,\r"
+                    + "\u00c5rhus,Oslo,Train,06:00,07:00,9\n"
+                    + "G,Malm\u00f6";
+            Files.write(file, csv.getBytes(StandardCharsets.UTF_8));
+            String expected = "[A, B, Bus, 09:05, 10:00, 12]545/600/12"
+                    + "[C, D, Train, 23:30, 00:15, x]1410/15/-1"
+                    + "[E, F, Flight, 1:02, 3:4, 5]62/184/5"
+                    + "[\u00c5rhus, Oslo, Train, 06:00, 07:00, 9]360/420/9"
+                    + "[G, Malm\u00f6]";
+            for (long window = 1; window <= 64; window++) {
+                StringBuilder sb = new StringBuilder();
+                try (CsvScanner in = CsvScanner.open(file, window)) {
+                    in.skipLine();
+                    while (in.next()) {
+                        List<String> fields = new ArrayList<>();
+                        for (int i = 0; i < in.fieldCount(); i++) fields.add(in.field(i));
+                        sb.append(fields);
+                        if (in.fieldCount() == 6) {
+                            sb.append(in.parseMinutes(3)).append('/').append(in.parseMinutes(4)).append('/').append(in.parseLong(5, -1));
+                        }
+                    }
+                }
+                Assert.assertEquals("window " + window, expected, sb.toString());
+            }
+            CompiledTimetable timetable = CompiledTimetable.compile(file);
+            Assert.assertTrue(timetable.stationId("\u00c5rhus") >= 0);
+            Assert.assertTrue(timetable.stationId("rhus") < 0);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testCompileIgnoresLineEndings() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-3/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-3/CustomerRequests.csv");
+
+        Path crlf = Files.createTempFile("schedules", ".csv");
+        try {
+            String text = new String(Files.readAllBytes(schedulesFilePath), StandardCharsets.UTF_8);
+            Files.write(crlf, text.replace("\r\n", "\n").replace("\n", "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+
+            CompiledTimetable plain = CompiledTimetable.compile(schedulesFilePath);
+            CompiledTimetable windows = CompiledTimetable.compile(crlf);
+            Assert.assertEquals(plain.size(), windows.size());
+            Assert.assertEquals(plain.stationCount(), windows.stationCount());
+
+            TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+            Map<String, OptimalTravelSchedule> expected = analyzer.getOptimalTravelOptions(plain, customerRequestFilePath);
+            Map<String, OptimalTravelSchedule> result = analyzer.getOptimalTravelOptions(windows, customerRequestFilePath);
+            for (Map.Entry<String, OptimalTravelSchedule> e : expected.entrySet()) {
+                OptimalTravelSchedule actual = result.get(e.getKey());
+                Assert.assertEquals(e.getValue().getValue(), actual.getValue());
+                Assert.assertEquals(e.getValue().getRoutes().size(), actual.getRoutes().size());
+                for (int i = 0; i < actual.getRoutes().size(); i++) {
+                    Route want = e.getValue().getRoutes().get(i);
+                    Route got = actual.getRoutes().get(i);
+                    Assert.assertEquals(want.getSource() + want.getDestination() + want.getMode() + want.getDepartureTime() + want.getArrivalTime(),
+                            got.getSource() + got.getDestination() + got.getMode() + got.getDepartureTime() + got.getArrivalTime());
+                }
+            }
+        } finally {
+            Files.delete(crlf);
+        }
+    }
+
+    @Test
+    public void testIncrementalUpdatesMatchRecompile() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-3/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-3/CustomerRequests.csv");
+
+        List<String> lines = Files.readAllLines(schedulesFilePath);
+        List<String> rows = new ArrayList<>(lines.subList(1, lines.size()));
+        LiveTimetable live = LiveTimetable.load(schedulesFilePath);
+        CompiledTimetable original = live.current();
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+        Map<String, OptimalTravelSchedule> before = analyzer.getOptimalTravelOptions(original, customerRequestFilePath);
+
+        // cancel every 5th leg, move every 7th one 10 minutes later and open a new station
+        TimetableUpdate update = new TimetableUpdate();
+        List<String> kept = new ArrayList<>();
+        List<String> appended = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            String[] f = rows.get(i).split(",");
+            Route leg = new Route(f[0], f[1], f[2], f[3], f[4]);
+            if (i % 5 == 0) {
+                update.remove(leg);
+            } else if (i % 7 == 0) {
+                String[] moved = { f[0], f[1], f[2], shiftClock(f[3], 10), shiftClock(f[4], 10), f[5] };
+                update.modify(leg, new Route(moved[0], moved[1], moved[2], moved[3], moved[4]), Long.parseLong(f[5]));
+                appended.add(String.join(",", moved));
+            } else {
+                kept.add(rows.get(i));
+            }
+        }
+        String[] first = rows.get(1).split(",");
+        String[] last = rows.get(rows.size() - 1).split(",");
+        for (String row : new String[] { "NEW," + first[0] + ",Bus,23:30,00:40,15", first[1] + ",NEW,Train,06:00,07:00,90",
+                "NEW," + last[1] + ",Flight,07:15,08:00,300" }) {
+            String[] f = row.split(",");
+            update.add(new Route(f[0], f[1], f[2], f[3], f[4]), Long.parseLong(f[5]));
+            appended.add(row);
+        }
+        kept.addAll(appended);
+
+        CompiledTimetable updated = live.apply(update);
+        Assert.assertSame(updated, live.current());
+        Assert.assertEquals(original.getVersion() + 1, updated.getVersion());
+        Assert.assertEquals(kept.size(), updated.size());
+        Assert.assertEquals(original.stationCount() + 1, updated.stationCount());
+        assertSameAsRecompiled(analyzer, updated, lines.get(0), kept, customerRequestFilePath);
+        assertSameSchedules(before, analyzer.getOptimalTravelOptions(original, customerRequestFilePath));
+
+        // dropping most of what is left compacts the cancelled slots away
+        TimetableUpdate cut = new TimetableUpdate();
+        List<String> remaining = new ArrayList<>();
+        for (int i = 0; i < kept.size(); i++) {
+            String[] f = kept.get(i).split(",");
+            if (i % 3 == 0) remaining.add(kept.get(i));
+            else cut.remove(new Route(f[0], f[1], f[2], f[3], f[4]));
+        }
+        CompiledTimetable compacted = live.apply(cut);
+        Assert.assertEquals(remaining.size(), compacted.legSlots());
+        assertSameAsRecompiled(analyzer, compacted, lines.get(0), remaining, customerRequestFilePath);
+
+        try {
+            live.apply(new TimetableUpdate().add(new Route("A", "B", "Bus", "01:00", "02:00"), 1)
+                    .remove(new Route("A", "B", "Bus", "01:00", "02:00")).remove(new Route("A", "B", "Bus", "01:00", "02:00")));
+            Assert.fail("removing a missing leg should fail");
+        } catch (IllegalArgumentException expected) {
+            Assert.assertSame(compacted, live.current());
+        }
+    }
+
+    @Test
+    public void testBinarySnapshotRoundTrip() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-3/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-3/CustomerRequests.csv");
+
+        Path dir = Files.createTempDirectory("snapshot");
+        Path snapshot = dir.resolve("timetable.bin");
+        try {
+            CompiledTimetable compiled = CompiledTimetable.compile(schedulesFilePath);
+            String[] f = Files.readAllLines(schedulesFilePath).get(1).split(",");
+            CompiledTimetable updated = compiled.apply(new TimetableUpdate()
+                    .remove(new Route(f[0], f[1], f[2], f[3], f[4]))
+                    .add(new Route(f[1], "\u00dcmraniye", "Ferry", "22:10", "01:05"), 35));
+
+            TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+            analyzer.setQueryCache(null);
+            for (CompiledTimetable original : new CompiledTimetable[] { compiled, updated }) {
+                original.save(snapshot);
+                CompiledTimetable loaded = CompiledTimetable.load(snapshot);
+                Assert.assertEquals(original.getVersion(), loaded.getVersion());
+                Assert.assertEquals(original.size(), loaded.size());
+                Assert.assertEquals(original.stationCount(), loaded.stationCount());
+                Assert.assertEquals(original.stationId("\u00dcmraniye"), loaded.stationId("\u00dcmraniye"));
+                for (SearchEngine engine : SearchEngine.values()) {
+                    for (String criteria : new String[] { "Time", "Cost", "Hops" }) analyzer.setDefaultEngine(criteria, engine);
+                    assertSameSchedules(analyzer.getOptimalTravelOptions(original, customerRequestFilePath),
+                            analyzer.getOptimalTravelOptions(loaded, customerRequestFilePath));
+                }
+            }
+
+            byte[] bytes = Files.readAllBytes(snapshot);
+            bytes[bytes.length / 2] ^= 1;
+            Files.write(snapshot, bytes);
+            try {
+                CompiledTimetable.load(snapshot);
+                Assert.fail("a damaged snapshot should not load");
+            } catch (IOException expected) {
+                Assert.assertTrue(expected.getMessage().contains("checksum"));
+            }
+
+            // a damaged or stale snapshot is rebuilt from the schedules file
+            Files.setLastModifiedTime(snapshot, Files.getLastModifiedTime(schedulesFilePath));
+            CompiledTimetable rebuilt = CompiledTimetable.compile(schedulesFilePath, snapshot);
+            Assert.assertEquals(compiled.size(), rebuilt.size());
+            Assert.assertEquals(compiled.size(), CompiledTimetable.load(snapshot).size());
+            Assert.assertEquals(compiled.size(), CompiledTimetable.compile(schedulesFilePath, snapshot).size());
+        } finally {
+            Files.deleteIfExists(snapshot);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testTransferPatternsMatchFullSearch() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-3/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-3/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TransferPatterns patterns = TransferPatterns.build(timetable, customerRequestFilePath, 10);
+        Assert.assertEquals(10, patterns.getPairCount());
+        Assert.assertTrue(patterns.getPatternCount() > 0);
+
+        Path file = Files.createTempFile("patterns", ".bin");
+        try {
+            patterns.save(file);
+            TransferPatterns loaded = TransferPatterns.load(file, timetable);
+            Assert.assertEquals(patterns.getPatternCount(), loaded.getPatternCount());
+
+            TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+            analyzer.setQueryCache(null);
+            SearchMetrics metrics = new SearchMetrics();
+            List<String> answeredFromPatterns = Collections.synchronizedList(new ArrayList<>());
+            metrics.setRequestListener(m -> {
+                if (m.getEngine().equals("TRANSFER_PATTERNS")) answeredFromPatterns.add(m.getRequestId());
+            });
+            TransferPatterns all = TransferPatterns.build(timetable, customerRequestFilePath, Integer.MAX_VALUE);
+            for (SearchEngine engine : new SearchEngine[] { SearchEngine.CONNECTION_SCAN, SearchEngine.ROUND_BASED, SearchEngine.PARETO }) {
+                for (String criteria : new String[] { "Time", "Cost", "Hops" }) analyzer.setDefaultEngine(criteria, engine);
+                analyzer.setTransferPatterns(null);
+                analyzer.setMetrics(null);
+                Map<String, OptimalTravelSchedule> expected = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+                analyzer.setMetrics(metrics);
+                // partly covered batches mix pattern answers with searches
+                for (TransferPatterns covering : new TransferPatterns[] { loaded, all }) {
+                    analyzer.setTransferPatterns(covering);
+                    answeredFromPatterns.clear();
+                    Map<String, OptimalTravelSchedule> result = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+                    if (covering == all) Assert.assertFalse(engine.name(), answeredFromPatterns.isEmpty());
+                    Assert.assertEquals(expected.keySet(), result.keySet());
+                    for (Map.Entry<String, OptimalTravelSchedule> e : expected.entrySet()) {
+                        Assert.assertEquals(engine + " " + e.getKey(), e.getValue().getValue(), result.get(e.getKey()).getValue());
+                    }
+                }
+            }
+
+            // a new version of the timetable neither uses nor loads the old patterns
+            String[] f = Files.readAllLines(schedulesFilePath).get(1).split(",");
+            CompiledTimetable updated = timetable.apply(new TimetableUpdate().remove(new Route(f[0], f[1], f[2], f[3], f[4])));
+            answeredFromPatterns.clear();
+            analyzer.getOptimalTravelOptions(updated, customerRequestFilePath);
+            Assert.assertTrue(answeredFromPatterns.isEmpty());
+            try {
+                TransferPatterns.load(file, updated);
+                Assert.fail("patterns for another timetable should not load");
+            } catch (IOException expected) {
+                Assert.assertTrue(expected.getMessage().contains("different timetable"));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testGoalDirectedParetoIsExact() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-4/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-4/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+        analyzer.setQueryCache(null);
+        for (String criteria : new String[] { "Time", "Cost", "Hops" }) analyzer.setDefaultEngine(criteria, SearchEngine.PARETO);
+        SearchMetrics metrics = new SearchMetrics();
+        analyzer.setMetrics(metrics);
+
+        analyzer.setGoalDirected(false);
+        Map<String, OptimalTravelSchedule> expected = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        long undirected = metrics.getExpansions();
+        metrics.reset();
+        analyzer.setGoalDirected(true);
+        timetable.precomputeLowerBounds();
+        assertSameSchedules(expected, analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath));
+        Assert.assertTrue(metrics.getExpansions() < undirected);
+
+        // the bounds never exceed what the exact answers actually take
+        try (CustomerRequest.Reader in = CustomerRequest.read(customerRequestFilePath)) {
+            while (in.hasNext()) {
+                CustomerRequest r = in.next();
+                int s = timetable.stationId(r.getSource());
+                int t = timetable.stationId(r.getDestination());
+                if (s < 0 || t < 0 || s == t) continue;
+                LowerBounds bounds = LowerBounds.forTarget(timetable, t);
+                for (Journey j : ParetoEngine.paretoSet(timetable, s, t, ParetoEngine.UNBOUNDED)) {
+                    Assert.assertTrue(bounds.duration[s] <= j.duration());
+                    Assert.assertTrue(bounds.cost[s] <= j.cost);
+                    Assert.assertTrue(bounds.hops[s] <= j.hops);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBidirectionalMatchesExactEngines() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-4/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-4/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+        analyzer.setQueryCache(null);
+        analyzer.setDefaultEngine("Time", SearchEngine.CONNECTION_SCAN);
+        analyzer.setDefaultEngine("Cost", SearchEngine.PARETO);
+        analyzer.setDefaultEngine("Hops", SearchEngine.ROUND_BASED);
+        Map<String, OptimalTravelSchedule> expected = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        for (String criteria : new String[] { "Time", "Cost", "Hops" }) analyzer.setDefaultEngine(criteria, SearchEngine.BIDIRECTIONAL);
+        assertSameSchedules(expected, analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath));
+
+        // a line of eight legs is past the label-setting hop cap but not the bidirectional search
+        Path schedules = Files.createTempFile("schedules", ".csv");
+        Path requests = Files.createTempFile("requests", ".csv");
+        try {
+            List<String> rows = new ArrayList<>();
+            rows.add("Source,Destination,Mode,DepartureTime,ArrivalTime,Cost");
+            for (int i = 0; i < 8; i++) {
+                rows.add("S" + i + ",S" + (i + 1) + ",Train," + String.format("%02d:00,%02d:50", 6 + i, 6 + i) + ",10");
+                rows.add("S" + i + ",X" + i + ",Bus," + String.format("%02d:10,%02d:20", 6 + i, 6 + i) + ",5");
+            }
+            Files.write(schedules, rows);
+            List<String> asked = new ArrayList<>();
+            asked.add("RequestId,CustomerName,Source,Destination,Criteria,Engine");
+            asked.add("1,Long Haul,S0,S8,Time,Bidirectional");
+            asked.add("2,Long Haul,S0,S8,Time,Label_Setting");
+            Files.write(requests, asked);
+            Map<String, OptimalTravelSchedule> result = new TravelOptimizerImpl(generateSummary)
+                    .getOptimalTravelOptions(CompiledTimetable.compile(schedules), requests);
+            Assert.assertEquals(8, result.get("1").getRoutes().size());
+            Assert.assertEquals(7 * 60 + 50, result.get("1").getValue());
+            Assert.assertTrue(result.get("2").getRoutes().isEmpty());
+
+            // a misspelt engine is an error rather than the criteria's default
+            asked.add("3,Long Haul,S0,S8,Time,Bidirectionl");
+            Files.write(requests, asked);
+            try {
+                new TravelOptimizerImpl(generateSummary).getOptimalTravelOptions(CompiledTimetable.compile(schedules), requests);
+                Assert.fail("an unknown engine should be rejected");
+            } catch (IllegalArgumentException ex) {
+                Assert.assertTrue(ex.getMessage().contains("Bidirectionl"));
+            }
+            Assert.assertEquals(SearchEngine.ROUND_BASED, SearchEngine.parse(" raptor "));
+            Assert.assertNull(SearchEngine.parse(" "));
+        } finally {
+            Files.delete(schedules);
+            Files.delete(requests);
+        }
+    }
+
+    @Test
+    public void testTravelProfileOverWindow() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-4/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-4/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+        analyzer.setDefaultEngine("Time", SearchEngine.CONNECTION_SCAN);
+        Map<String, OptimalTravelSchedule> fastest = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+
+        int profiles = 0;
+        try (CustomerRequest.Reader in = CustomerRequest.read(customerRequestFilePath)) {
+            while (in.hasNext()) {
+                CustomerRequest r = in.next();
+                if (!"time".equalsIgnoreCase(r.getCriteria()) || r.getSource().equals(r.getDestination())) continue;
+                // over the whole day the fastest journey is one of the profile's
+                List<OptimalTravelSchedule> day = analyzer.getTravelProfile(timetable, r.getSource(), r.getDestination(), "00:00", "23:59");
+                long best = day.isEmpty() ? 0 : Long.MAX_VALUE;
+                for (OptimalTravelSchedule s : day) best = Math.min(best, s.getValue());
+                Assert.assertEquals(r.getRequestId(), fastest.get(r.getRequestId()).getValue(), best);
+
+                // later departures arrive strictly later, and all leave inside the window
+                List<OptimalTravelSchedule> morning = analyzer.getTravelProfile(timetable, r.getSource(), r.getDestination(), "06:00", "10:00");
+                long lastDeparture = -1;
+                long lastArrival = -1;
+                for (OptimalTravelSchedule s : morning) {
+                    List<Route> routes = s.getRoutes();
+                    long departure = TimetableUpdate.minutes(routes.get(0).getDepartureTime());
+                    long arrival = departure + s.getValue();
+                    Assert.assertTrue(departure >= 6 * 60 && departure <= 10 * 60);
+                    Assert.assertTrue(departure > lastDeparture && arrival > lastArrival);
+                    Assert.assertEquals(r.getSource(), routes.get(0).getSource());
+                    Assert.assertEquals(r.getDestination(), routes.get(routes.size() - 1).getDestination());
+                    lastDeparture = departure;
+                    lastArrival = arrival;
+                }
+                if (++profiles == 50) break;
+            }
+        }
+        Assert.assertEquals(50, profiles);
+        Assert.assertTrue(analyzer.getTravelProfile(timetable, "nowhere", "nothing", "06:00", "10:00").isEmpty());
+        try {
+            analyzer.getTravelProfile(timetable, "a", "b", "6 am", "10:00");
+            Assert.fail("a malformed time should be rejected");
+        } catch (IllegalArgumentException expected) {
+            Assert.assertTrue(expected.getMessage().contains("6 am"));
+        }
+    }
+
+    @Test
+    public void testTravelMatrixMatchesRequests() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-4/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-4/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+        analyzer.setDefaultEngine("Time", SearchEngine.CONNECTION_SCAN);
+        analyzer.setDefaultEngine("Cost", SearchEngine.PARETO);
+        analyzer.setDefaultEngine("Hops", SearchEngine.ROUND_BASED);
+        Map<String, OptimalTravelSchedule> result = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+
+        List<CustomerRequest> requests = new ArrayList<>();
+        List<String> sources = new ArrayList<>();
+        List<String> destinations = new ArrayList<>();
+        try (CustomerRequest.Reader in = CustomerRequest.read(customerRequestFilePath)) {
+            while (in.hasNext()) {
+                CustomerRequest r = in.next();
+                requests.add(r);
+                if (!sources.contains(r.getSource())) sources.add(r.getSource());
+                if (!destinations.contains(r.getDestination())) destinations.add(r.getDestination());
+            }
+        }
+        destinations.add("nowhere");
+        TravelMatrix matrix = TravelMatrix.build(timetable, sources, destinations);
+        Assert.assertEquals(sources.size() * destinations.size(), matrix.getDurations().length);
+
+        for (CustomerRequest r : requests) {
+            int i = sources.indexOf(r.getSource());
+            int j = destinations.indexOf(r.getDestination());
+            OptimalTravelSchedule expected = result.get(r.getRequestId());
+            long value;
+            switch (r.getCriteria().toLowerCase()) {
+                case "cost":
+                    value = matrix.getCost(i, j);
+                    break;
+                case "hops":
+                    value = matrix.getHops(i, j);
+                    break;
+                default:
+                    value = matrix.getDuration(i, j);
+            }
+            if (r.getSource().equals(r.getDestination())) Assert.assertEquals(0, value);
+            else if (expected.getRoutes().isEmpty()) Assert.assertEquals(-1, value);
+            else Assert.assertEquals(r.getRequestId(), expected.getValue(), value);
+        }
+        int unknown = destinations.size() - 1;
+        Assert.assertEquals(-1, matrix.getDuration(0, unknown));
+        Assert.assertEquals(-1, matrix.getCost(0, unknown));
+        Assert.assertEquals(-1, matrix.getHops(0, unknown));
+        try {
+            matrix.getDuration(sources.size(), 0);
+            Assert.fail("a row past the matrix should be rejected");
+        } catch (IndexOutOfBoundsException expected) {
+            Assert.assertTrue(expected.getMessage().contains("outside"));
+        }
+    }
+
+    @Test
+    public void testIsochroneMatchesSingleSearches() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-4/Schedules.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+        List<String> stations = new ArrayList<>();
+        for (int i = 0; i < timetable.stationCount(); i++) stations.add(timetable.stationName(i));
+        String source = stations.get(0);
+        TravelMatrix matrix = TravelMatrix.build(timetable, Collections.singletonList(source), stations);
+
+        for (String departure : new String[] { "07:30", "23:15" }) {
+            Isochrone byTime = Isochrone.from(timetable, source, departure, "Time");
+            Isochrone byCost = Isochrone.from(timetable, source, departure, "Cost");
+            Isochrone byHops = Isochrone.from(timetable, source, departure, "Hops");
+            Assert.assertEquals(stations, byTime.getStations());
+            long ready = TimetableUpdate.minutes(departure);
+            for (int i = 1; i < stations.size(); i++) {
+                // the first journey of a day-long profile from the departure time arrives earliest
+                List<OptimalTravelSchedule> profile = analyzer.getTravelProfile(timetable, source, stations.get(i), departure,
+                        String.format("%02d:%02d", (ready + 1439) % 1440 / 60, (ready + 1439) % 60));
+                long expected = -1;
+                if (!profile.isEmpty()) {
+                    long leaves = TimetableUpdate.minutes(profile.get(0).getRoutes().get(0).getDepartureTime());
+                    expected = (leaves - ready + 1440) % 1440 + profile.get(0).getValue();
+                }
+                Assert.assertEquals(stations.get(i), expected, byTime.getTravelTime(stations.get(i)));
+                Assert.assertEquals(matrix.getCost(0, i), byCost.getCosts()[i]);
+                Assert.assertEquals(matrix.getHops(0, i), byHops.getHops()[i]);
+            }
+            for (String reached : byTime.reachableWithin(180)) Assert.assertTrue(byTime.getTravelTime(reached) <= 180);
+            long[] costs = byCost.getCosts();
+            Assert.assertEquals(stations.size() - 1, byCost.reachableForCost(Long.MAX_VALUE).size());
+            Assert.assertEquals(Arrays.stream(costs, 1, costs.length).filter(c -> c >= 0 && c <= 300).count(), byCost.reachableForCost(300).size());
+        }
+
+        Assert.assertTrue(Isochrone.from(timetable, "nowhere", "08:00", "Time").reachableWithin(Long.MAX_VALUE).isEmpty());
+        try {
+            Isochrone.from(timetable, source, "25:00", "Time");
+            Assert.fail("a malformed time should be rejected");
+        } catch (IllegalArgumentException expected) {
+            Assert.assertTrue(expected.getMessage().contains("25:00"));
+        }
+    }
+
+    @Test
+    public void testAlternativeItineraries() throws IOException {
+
+        Path schedules = Files.createTempFile("schedules", ".csv");
+        Path requests = Files.createTempFile("requests", ".csv");
+        try {
+            // direct 240 min for 50, via B 150 min for 20, via C 180 min for 10
+            Files.write(schedules, Arrays.asList("Source,Destination,Mode,DepartureTime,ArrivalTime,Cost",
+                    "A,D,Train,08:00,12:00,50",
+                    "A,B,Bus,08:00,09:00,10",
+                    "B,D,Bus,09:30,10:30,10",
+                    "A,C,Bus,08:00,08:30,5",
+                    "C,D,Bus,09:00,11:00,5"));
+            Files.write(requests, Arrays.asList("RequestId,CustomerName,Source,Destination,Criteria,Engine,Alternatives",
+                    "1,Commuter,A,D,Time,Connection_Scan,2",
+                    "2,Commuter,A,D,Cost,Pareto,2",
+                    "3,Commuter,A,D,Hops,,5",
+                    "4,Commuter,A,D,Time,Label_Setting,1",
+                    "5,Commuter,A,D,Time,Connection_Scan,"));
+            Map<String, OptimalTravelSchedule> result = new TravelOptimizerImpl(generateSummary)
+                    .getOptimalTravelOptions(CompiledTimetable.compile(schedules), requests);
+
+            Assert.assertEquals(150, result.get("1").getValue());
+            Assert.assertEquals(Arrays.asList(180L, 240L), values(result.get("1").getAlternatives()));
+            Assert.assertEquals("C", result.get("1").getAlternatives().get(0).getRoutes().get(0).getDestination());
+            Assert.assertEquals(10, result.get("2").getValue());
+            Assert.assertEquals(Arrays.asList(20L, 50L), values(result.get("2").getAlternatives()));
+            // only three ways there
+            Assert.assertEquals(1, result.get("3").getValue());
+            Assert.assertEquals(Arrays.asList(2L, 2L), values(result.get("3").getAlternatives()));
+            Assert.assertEquals(Arrays.asList(180L), values(result.get("4").getAlternatives()));
+            Assert.assertTrue(result.get("5").getAlternatives().isEmpty());
+        } finally {
+            Files.delete(schedules);
+            Files.delete(requests);
+        }
+
+        // on a real network: distinct from the answer and each other, never better, in order
+        CompiledTimetable timetable = CompiledTimetable.compile(Paths.get("src/main/resources/TestCase-4/Schedules.csv"));
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+        analyzer.setDefaultEngine("Time", SearchEngine.CONNECTION_SCAN);
+        analyzer.setDefaultEngine("Cost", SearchEngine.PARETO);
+        List<CustomerRequest> plain = new ArrayList<>();
+        List<CustomerRequest> asked = new ArrayList<>();
+        String[] criteria = { "Time", "Cost", "Hops" };
+        for (int i = 0; i < 60; i++) {
+            String source = timetable.stationName(i % 20);
+            String destination = timetable.stationName((i * 7 + 3) % 30);
+            plain.add(new CustomerRequest(Integer.toString(i), "Customer", source, destination, criteria[i % 3]));
+            asked.add(new CustomerRequest(Integer.toString(i), "Customer", source, destination, criteria[i % 3], null, 2));
+        }
+        Map<String, OptimalTravelSchedule> answers = new HashMap<>();
+        analyzer.streamOptimalTravelOptions(timetable, plain.iterator(), answers::put);
+        Map<String, OptimalTravelSchedule> listed = new HashMap<>();
+        analyzer.streamOptimalTravelOptions(timetable, asked.iterator(), listed::put);
+        assertSameSchedules(answers, listed);
+        int alternatives = 0;
+        for (CustomerRequest req : asked) {
+            OptimalTravelSchedule answer = listed.get(req.getRequestId());
+            Assert.assertTrue(answers.get(req.getRequestId()).getAlternatives().isEmpty());
+            Assert.assertTrue(answer.getAlternatives().size() <= 2);
+            Set<String> seen = new HashSet<>();
+            seen.add(describe(answer.getRoutes()));
+            long last = answer.getValue();
+            alternatives += answer.getAlternatives().size();
+            for (OptimalTravelSchedule alt : answer.getAlternatives()) {
+                Assert.assertTrue(seen.add(describe(alt.getRoutes())));
+                Assert.assertTrue(alt.getValue() >= last);
+                last = alt.getValue();
+            }
+        }
+        Assert.assertTrue(alternatives > 60);
+
+        try {
+            new CustomerRequest("1", "Commuter", "A", "D", "Time", null, -1);
+            Assert.fail("a negative count should be rejected");
+        } catch (IllegalArgumentException expected) {
+            Assert.assertTrue(expected.getMessage().contains("-1"));
+        }
+    }
+
+    @Test
+    public void testBudgetedSearchReportsOptimalityGap() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-4/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-4/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+        analyzer.setQueryCache(null);
+        analyzer.setDefaultEngine("Time", SearchEngine.CONNECTION_SCAN);
+        analyzer.setDefaultEngine("Cost", SearchEngine.PARETO);
+        analyzer.setDefaultEngine("Hops", SearchEngine.ROUND_BASED);
+        Map<String, OptimalTravelSchedule> expected = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        for (OptimalTravelSchedule schedule : expected.values()) {
+            Assert.assertTrue(schedule.isOptimal());
+            Assert.assertEquals(0, schedule.getGap());
+        }
+
+        List<CustomerRequest> requests = new ArrayList<>();
+        try (CustomerRequest.Reader in = CustomerRequest.read(customerRequestFilePath)) {
+            while (in.hasNext()) requests.add(in.next());
+        }
+        for (SearchBudget budget : new SearchBudget[] { SearchBudget.UNLIMITED, SearchBudget.ofExpansions(5), SearchBudget.parse("50ms") }) {
+            List<CustomerRequest> budgeted = new ArrayList<>();
+            for (CustomerRequest req : requests) {
+                budgeted.add(new CustomerRequest(req.getRequestId(), req.getCustomerName(), req.getSource(), req.getDestination(),
+                        req.getCriteria(), null, 0, budget));
+            }
+            Map<String, OptimalTravelSchedule> result = new HashMap<>();
+            analyzer.streamOptimalTravelOptions(timetable, budgeted.iterator(), result::put);
+            int proven = 0;
+            for (Map.Entry<String, OptimalTravelSchedule> e : expected.entrySet()) {
+                OptimalTravelSchedule want = e.getValue();
+                OptimalTravelSchedule got = result.get(e.getKey());
+                if (got.isOptimal()) {
+                    proven++;
+                    Assert.assertEquals(0, got.getGap());
+                    Assert.assertEquals(e.getKey(), want.getRoutes().isEmpty(), got.getRoutes().isEmpty());
+                    Assert.assertEquals(e.getKey(), want.getValue(), got.getValue());
+                } else if (!got.getRoutes().isEmpty()) {
+                    // whatever was found is a real journey, and the gap bounds the optimum
+                    Assert.assertTrue(got.getGap() > 0);
+                    Assert.assertTrue(got.getValue() >= want.getValue());
+                    Assert.assertTrue(got.getValue() - got.getGap() <= want.getValue());
+                } else {
+                    Assert.assertEquals(-1, got.getGap());
+                }
+            }
+            if (budget.isUnlimited()) Assert.assertEquals(expected.size(), proven);
+        }
+
+        // past the label-setting hop cap: only the budgeted search says it gave up nothing
+        Path schedules = Files.createTempFile("schedules", ".csv");
+        Path requestsFile = Files.createTempFile("requests", ".csv");
+        try {
+            List<String> rows = new ArrayList<>();
+            rows.add("Source,Destination,Mode,DepartureTime,ArrivalTime,Cost");
+            for (int i = 0; i < 8; i++) rows.add("S" + i + ",S" + (i + 1) + ",Train," + String.format("%02d:00,%02d:50", 6 + i, 6 + i) + ",10");
+            Files.write(schedules, rows);
+            Files.write(requestsFile, Arrays.asList("RequestId,CustomerName,Source,Destination,Criteria,Engine,Alternatives,Budget",
+                    "1,Long Haul,S0,S8,Cost,,,1000",
+                    "2,Long Haul,S0,S8,Cost,,,",
+                    "3,Long Haul,S0,S8,Time,,,1"));
+            Map<String, OptimalTravelSchedule> result = new TravelOptimizerImpl(generateSummary)
+                    .getOptimalTravelOptions(CompiledTimetable.compile(schedules), requestsFile);
+            Assert.assertEquals(80, result.get("1").getValue());
+            Assert.assertTrue(result.get("1").isOptimal());
+            Assert.assertTrue(result.get("2").getRoutes().isEmpty());
+            Assert.assertFalse(result.get("2").isOptimal());
+            Assert.assertEquals(-1, result.get("2").getGap());
+            Assert.assertTrue(result.get("3").getRoutes().isEmpty());
+            Assert.assertFalse(result.get("3").isOptimal());
+        } finally {
+            Files.delete(schedules);
+            Files.delete(requestsFile);
+        }
+
+        try {
+            SearchBudget.parse("soon");
+            Assert.fail("a malformed budget should be rejected");
+        } catch (IllegalArgumentException ex) {
+            Assert.assertTrue(ex.getMessage().contains("soon"));
+        }
+    }
+
+    private static String describe(List<Route> routes) {
+        StringBuilder out = new StringBuilder();
+        for (Route r : routes) out.append(r.getSource()).append(r.getDestination()).append(r.getMode()).append(r.getDepartureTime()).append(';');
+        return out.toString();
+    }
+
+    private static List<Long> values(List<OptimalTravelSchedule> schedules) {
+        List<Long> out = new ArrayList<>();
+        for (OptimalTravelSchedule s : schedules) out.add(s.getValue());
+        return out;
+    }
+
+    private void assertSameAsRecompiled(TravelOptimizerImpl analyzer, CompiledTimetable updated, String header, List<String> rows,
+                                        Path customerRequestFilePath) throws IOException {
+        Path file = Files.createTempFile("schedules", ".csv");
+        try {
+            List<String> text = new ArrayList<>();
+            text.add(header);
+            text.addAll(rows);
+            Files.write(file, text);
+            CompiledTimetable recompiled = CompiledTimetable.compile(file);
+            Assert.assertEquals(recompiled.size(), updated.size());
+            for (SearchEngine engine : SearchEngine.values()) {
+                for (String criteria : new String[] { "Time", "Cost", "Hops" }) analyzer.setDefaultEngine(criteria, engine);
+                assertSameSchedules(analyzer.getOptimalTravelOptions(recompiled, customerRequestFilePath),
+                        analyzer.getOptimalTravelOptions(updated, customerRequestFilePath));
+            }
+            for (String criteria : new String[] { "Time", "Cost", "Hops" }) analyzer.setDefaultEngine(criteria, null);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void assertSameSchedules(Map<String, OptimalTravelSchedule> expected, Map<String, OptimalTravelSchedule> result) {
+        Assert.assertEquals(expected.keySet(), result.keySet());
+        for (Map.Entry<String, OptimalTravelSchedule> e : expected.entrySet()) {
+            OptimalTravelSchedule actual = result.get(e.getKey());
+            Assert.assertEquals(e.getKey(), e.getValue().getValue(), actual.getValue());
+            Assert.assertEquals(e.getValue().getRoutes().size(), actual.getRoutes().size());
+            for (int i = 0; i < actual.getRoutes().size(); i++) {
+                Route want = e.getValue().getRoutes().get(i);
+                Route got = actual.getRoutes().get(i);
+                Assert.assertEquals(want.getSource() + want.getDestination() + want.getMode() + want.getDepartureTime() + want.getArrivalTime(),
+                        got.getSource() + got.getDestination() + got.getMode() + got.getDepartureTime() + got.getArrivalTime());
+            }
+        }
+    }
+
+    private static String shiftClock(String time, int minutes) {
+        String[] hm = time.split(":");
+        int t = (Integer.parseInt(hm[0]) * 60 + Integer.parseInt(hm[1]) + minutes) % 1440;
+        return String.format("%02d:%02d", t / 60, t % 60);
+    }
+
+    @Test
+    public void testStreamingMatchesBatch() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-3/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-3/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+        analyzer.setQueryCache(null);
+        Map<String, OptimalTravelSchedule> expected = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+
+        analyzer.setMaxInFlightRequests(7);
+        List<CustomerRequest> requests = new ArrayList<>();
+        try (CustomerRequest.Reader reader = CustomerRequest.read(customerRequestFilePath)) {
+            reader.forEachRemaining(requests::add);
+        }
+        int[] pulled = new int[1];
+        Iterator<CustomerRequest> source = new Iterator<CustomerRequest>() {
+            final Iterator<CustomerRequest> it = requests.iterator();
+
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public CustomerRequest next() {
+                pulled[0]++;
+                return it.next();
+            }
+        };
+        Map<String, OptimalTravelSchedule> streamed = new HashMap<>();
+        int[] delivered = new int[1];
+        analyzer.streamOptimalTravelOptions(timetable, source, (id, schedule) -> {
+            Assert.assertTrue(pulled[0] - delivered[0] <= 7);
+            delivered[0]++;
+            streamed.put(id, schedule);
+        });
+
+        Assert.assertEquals(requests.size(), delivered[0]);
+        Assert.assertEquals(expected.keySet(), streamed.keySet());
+        for (Map.Entry<String, OptimalTravelSchedule> e : expected.entrySet()) {
+            Assert.assertEquals(e.getValue().getValue(), streamed.get(e.getKey()).getValue());
+            Assert.assertEquals(e.getValue().getRoutes().size(), streamed.get(e.getKey()).getRoutes().size());
+        }
+    }
+
+    @Test
+    public void testSummaryServiceAgainstStub() throws Exception {
+
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger prompts = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/summarize", exchange -> {
+            calls.incrementAndGet();
+            String body = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+            int n = body.split("Legs:", -1).length - 1;
+            prompts.addAndGet(n);
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < n; i++) sb.append(i == 0 ? "" : ",").append("{\"summary_text\":\"stub summary\"}");
+            byte[] out = sb.append("]").toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, out.length);
+            exchange.getResponseBody().write(out);
+            exchange.close();
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        // never quiet for long enough to hit a read timeout
+        server.createContext("/trickle", exchange -> {
+            readAll(exchange.getRequestBody());
+            exchange.sendResponseHeaders(200, 0);
+            try {
+                for (int i = 0; i < 20; i++) {
+                    exchange.getResponseBody().write(' ');
+                    exchange.getResponseBody().flush();
+                    Thread.sleep(100);
+                }
+            } catch (IOException | InterruptedException ignored) {
+            }
+            exchange.close();
+        });
+        // slow handlers must not hold up the others
+        ExecutorService handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        try (SummaryService service = new SummaryService(base + "/summarize", "test-key", 2, 4, 5000, 100);
+             SummaryService slow = new SummaryService(base + "/slow", "test-key", 1, 4, 200, 100);
+             SummaryService trickle = new SummaryService(base + "/trickle", "test-key", 1, 1, 300, 100)) {
+
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                String dep = String.format("%02d:00", i);
+                futures.add(service.summarize(Collections.singletonList(new Route("A", "B", "Bus", dep, "23:59")), "Time"));
+            }
+            for (CompletableFuture<String> f : futures) Assert.assertEquals("stub summary", f.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals(20, prompts.get());
+            Assert.assertTrue(calls.get() <= 20);
+
+            // same legs and criteria come from the cache
+            int before = calls.get();
+            String cached = service.summarize(Collections.singletonList(new Route("A", "B", "Bus", "03:00", "23:59")), "Time").get(10, TimeUnit.SECONDS);
+            Assert.assertEquals("stub summary", cached);
+            Assert.assertEquals(before, calls.get());
+
+            String fallback = slow.summarize(Collections.singletonList(new Route("A", "B", "Bus", "10:00", "11:30")), "Time").get(10, TimeUnit.SECONDS);
+            Assert.assertEquals("Total travel time 90 minutes. Optimal by Time.", fallback);
+
+            // the deadline holds while the call is still reading, and for the job queued behind it
+            CompletableFuture<String> first = trickle.summarize(Collections.singletonList(new Route("A", "B", "Bus", "10:00", "11:00")), "Time");
+            CompletableFuture<String> second = trickle.summarize(Collections.singletonList(new Route("A", "B", "Bus", "12:00", "12:45")), "Time");
+            Assert.assertEquals("Total travel time 60 minutes. Optimal by Time.", first.get(1, TimeUnit.SECONDS));
+            Assert.assertEquals("Total travel time 45 minutes. Optimal by Time.", second.get(1, TimeUnit.SECONDS));
+
+            Path schedulesFilePath = Paths.get("src/main/resources/TestCase-3/Schedules.csv");
+            Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-3/CustomerRequests.csv");
+            TravelOptimizerImpl analyzer = new TravelOptimizerImpl(true);
+            analyzer.setSummaryService(service);
+            Map<String, OptimalTravelSchedule> result = analyzer.getOptimalTravelOptions(new ResourceInfo(schedulesFilePath, customerRequestFilePath));
+            Map<String, OptimalTravelSchedule> streamed = new HashMap<>();
+            analyzer.streamOptimalTravelOptions(CompiledTimetable.compile(schedulesFilePath), customerRequestFilePath, streamed::put);
+            Assert.assertEquals(result.keySet(), streamed.keySet());
+            for (OptimalTravelSchedule schedule : result.values()) {
+                String expected = schedule.getRoutes().isEmpty() ? schedule.getSummary() : "stub summary";
+                Assert.assertEquals(expected, schedule.getSummary());
+            }
+        } finally {
+            server.stop(0);
+            handlers.shutdownNow();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        for (int n; (n = in.read(buf)) > 0; ) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testSolverExecutorModes() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-3/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-3/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(generateSummary);
+        analyzer.setQueryCache(null);
+        Map<String, OptimalTravelSchedule> expected = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+
+        for (SolverExecutor.Mode mode : SolverExecutor.Mode.values()) {
+            try (SolverExecutor executor = SolverExecutor.create(mode, 2, 3)) {
+                analyzer.setSolverExecutor(executor);
+                Map<String, OptimalTravelSchedule> result = new java.util.concurrent.ConcurrentHashMap<>();
+                analyzer.streamOptimalTravelOptions(timetable, customerRequestFilePath, result::put);
+                analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath)
+                        .forEach((id, schedule) -> Assert.assertEquals(result.get(id).getValue(), schedule.getValue()));
+                Assert.assertEquals(expected.keySet(), result.keySet());
+                for (Map.Entry<String, OptimalTravelSchedule> e : expected.entrySet()) {
+                    Assert.assertEquals(mode.name(), e.getValue().getValue(), result.get(e.getKey()).getValue());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSearchMetrics() throws IOException {
+
+        Path schedulesFilePath = Paths.get("src/main/resources/TestCase-3/Schedules.csv");
+        Path customerRequestFilePath = Paths.get("src/main/resources/TestCase-3/CustomerRequests.csv");
+
+        CompiledTimetable timetable = CompiledTimetable.compile(schedulesFilePath);
+        TravelOptimizerImpl analyzer = new TravelOptimizerImpl(false);
+        Map<String, OptimalTravelSchedule> expected = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+
+        SearchMetrics metrics = new SearchMetrics();
+        List<SearchMetrics.RequestMetrics> perRequest = Collections.synchronizedList(new ArrayList<>());
+        metrics.setRequestListener(perRequest::add);
+        analyzer.setMetrics(metrics);
+        analyzer.getQueryCache().clear();
+        Map<String, OptimalTravelSchedule> result = analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+
+        for (Map.Entry<String, OptimalTravelSchedule> e : expected.entrySet()) {
+            Assert.assertEquals(e.getValue().getValue(), result.get(e.getKey()).getValue());
+        }
+        Assert.assertEquals(Files.readAllLines(customerRequestFilePath).size() - 1, metrics.getRequests());
+        Assert.assertTrue(metrics.getSearches() > 0);
+        Assert.assertTrue(metrics.getPushes() >= metrics.getExpansions() && metrics.getExpansions() > 0);
+        Assert.assertTrue(metrics.getParseNanos() > 0 && metrics.getSearchNanos() > 0);
+        Assert.assertEquals(metrics.getSearches(), metrics.getSearchLatency().getCount());
+        Assert.assertEquals(metrics.getSearches(), perRequest.size());
+        Assert.assertTrue(metrics.getSearchLatency().getPercentileNanos(0.5) <= metrics.getSearchLatency().getPercentileNanos(1.0));
+        for (SearchMetrics.RequestMetrics m : perRequest) {
+            Assert.assertEquals(SearchEngine.LABEL_SETTING.name(), m.getEngine());
+            Assert.assertEquals(1, m.getBatchSize());
+        }
+
+        long searches = metrics.getSearches();
+        analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        Assert.assertEquals(searches, metrics.getSearches());
+        Assert.assertTrue(metrics.dump(), metrics.getCacheHits() >= searches);
+
+        metrics.reset();
+        perRequest.clear();
+        analyzer.setDefaultEngine("Time", SearchEngine.CONNECTION_SCAN);
+        analyzer.getQueryCache().clear();
+        analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        long batched = perRequest.stream().filter(m -> m.getEngine().equals(SearchEngine.CONNECTION_SCAN.name())).count();
+        Assert.assertTrue(batched > 0);
+        Assert.assertTrue(perRequest.size() >= metrics.getSearches());
+
+        analyzer.setMetrics(null);
+        metrics.reset();
+        analyzer.getOptimalTravelOptions(timetable, customerRequestFilePath);
+        Assert.assertEquals(0, metrics.getRequests());
+        Assert.assertTrue(metrics.dump().startsWith("requests 0"));
+    }
+
     @Test
     public void testWithSummary() throws IOException {
         org.junit.Assume.assumeTrue(generateSummary);